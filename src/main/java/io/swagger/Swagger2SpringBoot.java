@@ -3,6 +3,14 @@ package io.swagger;
 import io.swagger.configuration.LocalDateConverter;
 import io.swagger.configuration.LocalDateTimeConverter;
 
+import org.epos.dbconnector.ConfigurationMethod;
+import org.epos.dbconnector.service.CompressionDictionaryService;
+import org.epos.dbconnector.service.ConfigurationChangeListener;
+import org.epos.dbconnector.service.EntityManagerFactoryProvider;
+import org.epos.dbconnector.util.AESUtil;
+import org.epos.dbconnector.util.Compression;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.ExitCodeGenerator;
 import org.springframework.boot.SpringApplication;
@@ -18,11 +26,26 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @ComponentScan(basePackages = { "io.swagger", "io.swagger.api" , "io.swagger.configuration"})
 public class Swagger2SpringBoot implements CommandLineRunner {
 
+    @Autowired
+    private ConfigurationChangeListener configurationChangeListener;
+
     @Override
     public void run(String... arg0) throws Exception {
         if (arg0.length > 0 && arg0[0].equals("exitcode")) {
             throw new ExitException();
         }
+        // Derive the v2 master key before serving requests
+        AESUtil.initialize();
+        // Compression dictionaries are loaded from the database when first needed
+        Compression.setDictionaryStore(new CompressionDictionaryService());
+        // Apply the schema changes when asked to, failing startup if they cannot be applied
+        EntityManagerFactoryProvider.updateSchema();
+        // Open the connection pool and prepare the queries before readiness is reported
+        EntityManagerFactoryProvider.initialize();
+        // Follow writes of other instances before loading anything they could change
+        configurationChangeListener.start();
+        // Load the ids of all configurations, so lookups of unknown ids skip the database
+        ConfigurationMethod.getRepository().startIdFilter();
     }
 
     public static void main(String[] args) throws Exception {
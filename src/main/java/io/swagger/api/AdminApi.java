@@ -0,0 +1,47 @@
+package io.swagger.api;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.Map;
+
+@Validated
+public interface AdminApi {
+
+    @Operation(summary = "Snapshot all configurations", description = "Stream the configurations table in PostgreSQL binary COPY format. Only available when CONFIGURATION_COPY_ENABLED is set, with the CONFIGURATION_ADMIN_TOKEN bearer token.", tags={ "Administration" })
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/octet-stream")),
+        @ApiResponse(responseCode = "401", description = "Missing or wrong admin token"),
+        @ApiResponse(responseCode = "403", description = "The admin API is disabled"),
+        @ApiResponse(responseCode = "404", description = "COPY operations are disabled") })
+    @RequestMapping(value = "/admin/configurations/snapshot",
+        produces = { "application/octet-stream" },
+        method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> exportSnapshot();
+
+
+    @Operation(summary = "Restore configurations from a snapshot", description = "Load configurations from a snapshot in PostgreSQL binary COPY format. Only available when CONFIGURATION_COPY_ENABLED is set, with the CONFIGURATION_ADMIN_TOKEN bearer token.", tags={ "Administration" })
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Rows read from the snapshot and rows stored"),
+        @ApiResponse(responseCode = "401", description = "Missing or wrong admin token"),
+        @ApiResponse(responseCode = "403", description = "The admin API is disabled"),
+        @ApiResponse(responseCode = "404", description = "COPY operations are disabled") })
+    @RequestMapping(value = "/admin/configurations/snapshot",
+        produces = { "application/json" },
+        consumes = { "application/octet-stream" },
+        method = RequestMethod.POST)
+    ResponseEntity<Map<String, Object>> importSnapshot(@Parameter(in = ParameterIn.QUERY, description = "Replace existing configurations with the same ID", schema=@Schema()) @RequestParam(value = "replace", required = false, defaultValue = "false") boolean replace) throws IOException;
+
+}
@@ -0,0 +1,49 @@
+package io.swagger.api;
+
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.servlet.http.HttpServletRequest;
+import org.epos.dbconnector.service.ConfigurationCopyService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.Map;
+
+@RestController
+public class AdminApiController implements AdminApi {
+
+    private final HttpServletRequest request;
+
+    private final ConfigurationCopyService copyService;
+
+    @org.springframework.beans.factory.annotation.Autowired
+    public AdminApiController(HttpServletRequest request, ConfigurationCopyService copyService) {
+        this.request = request;
+        this.copyService = copyService;
+    }
+
+    public ResponseEntity<StreamingResponseBody> exportSnapshot() {
+        if (!ConfigurationCopyService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"configurations.copy\"")
+                .body(copyService::exportTo);
+    }
+
+    public ResponseEntity<Map<String, Object>> importSnapshot(@Parameter(in = ParameterIn.QUERY, description = "Replace existing configurations with the same ID", schema=@Schema()) @RequestParam(value = "replace", required = false, defaultValue = "false") boolean replace) throws IOException {
+        if (!ConfigurationCopyService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        // The snapshot is streamed from the request body into the database
+        return ResponseEntity.ok(copyService.importFrom(request.getInputStream(), replace));
+    }
+
+}
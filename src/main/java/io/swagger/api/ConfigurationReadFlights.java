@@ -0,0 +1,29 @@
+package io.swagger.api;
+
+import org.epos.dbconnector.util.SingleFlight;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads of configurations by id in progress, per response format. Concurrent requests for the same
+ * id share one lookup and decryption, unless the id was written after the read in progress started.
+ */
+@Component
+public class ConfigurationReadFlights {
+
+    final SingleFlight<String, ShareApiController.PlainRead> plainReads = new SingleFlight<>();
+    final SingleFlight<String, String> encryptedReads = new SingleFlight<>();
+
+    /**
+     * Returns the reads of configurations by id, shared between concurrent requests for the same id.
+     */
+    public SingleFlight<String, ?> getPlainReads() {
+        return plainReads;
+    }
+
+    /**
+     * Returns the reads of encrypted configurations by id, shared between concurrent requests for the same id.
+     */
+    public SingleFlight<String, ?> getEncryptedReads() {
+        return encryptedReads;
+    }
+}
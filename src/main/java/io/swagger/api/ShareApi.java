@@ -5,11 +5,14 @@
  */
 package io.swagger.api;
 
+import io.swagger.model.BatchConfigurations;
+import io.swagger.model.ImportResult;
 import io.swagger.model.KeyCreated;
 import io.swagger.model.ModelConfiguration;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -27,9 +30,11 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.bind.annotation.CookieValue;
 
 import jakarta.validation.Valid;
+import java.io.IOException;
 import jakarta.validation.constraints.*;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +59,26 @@ public interface ShareApi {
 );
 
 
+    @Operation(summary = "Import configurations into database", description = "Add many configurations at once from a JSON array. Configurations whose ID already exists are left unchanged.", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Result for each configuration, in input order", content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ImportResult.class)))) })
+    @RequestMapping(value = "/share/import",
+        produces = { "application/json" },
+        consumes = { "application/json" },
+        method = RequestMethod.POST)
+    ResponseEntity<List<ImportResult>> importConfigurations(@Parameter(in = ParameterIn.DEFAULT, description = "Configurations", required=true, schema=@Schema()) @Valid @RequestBody List<ModelConfiguration> body);
+
+
+    @Operation(summary = "Import configurations into database", description = "Add many configurations at once from newline-delimited JSON, read while it is received. Configurations whose ID already exists are left unchanged.", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Result for each configuration, in input order", content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ImportResult.class)))) })
+    @RequestMapping(value = "/share/import",
+        produces = { "application/json" },
+        consumes = { "application/x-ndjson" },
+        method = RequestMethod.POST)
+    ResponseEntity<List<ImportResult>> importConfigurationsStream() throws IOException;
+
+
     @Operation(summary = "Retrieve configurations from database", description = "Retrieve configurations from database", tags={ "Configuration Sharing Service" })
     @ApiResponses(value = { 
         @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class))),
@@ -65,15 +90,50 @@ public interface ShareApi {
     ResponseEntity<ModelConfiguration> findConfigurationsByIDEncrypted(@Parameter(in = ParameterIn.PATH, description = "Status values that need to be considered for filter", required=true, schema=@Schema()) @PathVariable("instance_id") String configuration
 );
 
-    @Operation(summary = "Retrieve configurations from database", description = "Retrieve configurations from database", tags={ "Configuration Sharing Service" })
+    @Operation(summary = "Retrieve configurations from database", description = "Retrieve all configurations from database, or one page of them ordered by ID when limit or after is given", tags={ "Configuration Sharing Service" })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class))),
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class)),
+                    headers = { @Header(name = "X-Next-Cursor", description = "Cursor of the next page, absent on the last page"),
+                            @Header(name = "Link", description = "Link to the next page, absent on the last page") }),
 
-            @ApiResponse(responseCode = "400", description = "Invalid status value") })
+            @ApiResponse(responseCode = "400", description = "Invalid limit or cursor") })
     @RequestMapping(value = "/share/all",
             produces = { "application/json" },
             method = RequestMethod.GET)
-    ResponseEntity<List<ModelConfiguration>> findAllConfigurationsEncrypted();
+    ResponseEntity<List<ModelConfiguration>> findAllConfigurationsEncrypted(
+            @Parameter(in = ParameterIn.QUERY, description = "Maximum number of configurations to return, pages the listing", schema=@Schema()) @RequestParam(value = "limit", required = false) Integer limit,
+            @Parameter(in = ParameterIn.QUERY, description = "Cursor returned with the previous page", schema=@Schema()) @RequestParam(value = "after", required = false) String after);
+
+
+    @Operation(summary = "Retrieve several normalized configurations from database", description = "Retrieve the configurations with the given IDs in one request and return them as normalized (plain, readable) JSON, listing the IDs that were not found", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = BatchConfigurations.class))),
+            @ApiResponse(responseCode = "400", description = "Too many IDs") })
+    @RequestMapping(value = "/share/batch",
+            consumes = { "application/json" },
+            produces = { "application/json" },
+            method = RequestMethod.POST)
+    ResponseEntity<BatchConfigurations> findConfigurationsByIDs(@Parameter(in = ParameterIn.DEFAULT, description = "Configuration IDs", required=true, schema=@Schema()) @Valid @RequestBody List<String> ids);
+
+
+    @Operation(summary = "Retrieve several configurations from database", description = "Retrieve the configurations with the given IDs in one request in the encrypted format, listing the IDs that were not found", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = BatchConfigurations.class))),
+            @ApiResponse(responseCode = "400", description = "Too many IDs") })
+    @RequestMapping(value = "/share/batch/encrypted",
+            consumes = { "application/json" },
+            produces = { "application/json" },
+            method = RequestMethod.POST)
+    ResponseEntity<BatchConfigurations> findConfigurationsByIDsEncrypted(@Parameter(in = ParameterIn.DEFAULT, description = "Configuration IDs", required=true, schema=@Schema()) @Valid @RequestBody List<String> ids);
+
+
+    @Operation(summary = "Export all configurations from database", description = "Stream all configurations from database, ordered by ID, as newline-delimited JSON in the encrypted format. A failure part way ends the stream with a line holding only an error field", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/x-ndjson", schema = @Schema(implementation = ModelConfiguration.class))) })
+    @RequestMapping(value = "/share/export",
+            produces = { "application/x-ndjson" },
+            method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> exportConfigurationsEncrypted();
 
 
     @Operation(summary = "Retrieve normalized configuration from database", description = "Retrieve configuration from database and return it as normalized (plain, readable) JSON", tags={ "Configuration Sharing Service" })
@@ -83,23 +143,45 @@ public interface ShareApi {
     @RequestMapping(value = "/configurations/{instance_id}",
         produces = { "application/json" },
         method = RequestMethod.GET)
-    ResponseEntity<String> findConfigurationsByID(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId);
+    ResponseEntity<StreamingResponseBody> findConfigurationsByID(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId);
 
 
-    @Operation(summary = "Retrieve all configurations normalized from database", description = "Retrieve all configurations from database and return them as normalized (plain, readable) JSON", tags={ "Configuration Sharing Service" })
+    @Operation(summary = "Check whether a configuration exists", description = "Check whether a configuration exists in database without retrieving it", tags={ "Configuration Sharing Service" })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ModelConfiguration.class)))),
-            @ApiResponse(responseCode = "400", description = "Invalid status value") })
+        @ApiResponse(responseCode = "200", description = "Configuration exists"),
+        @ApiResponse(responseCode = "404", description = "Configuration not found") })
+    @RequestMapping(value = "/configurations/{instance_id}",
+        method = RequestMethod.HEAD)
+    ResponseEntity<Void> existsConfiguration(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId);
+
+
+    @Operation(summary = "Retrieve all configurations normalized from database", description = "Retrieve all configurations from database, or one page of them ordered by ID when limit or after is given, and return them as normalized (plain, readable) JSON", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ModelConfiguration.class))),
+                    headers = { @Header(name = "X-Next-Cursor", description = "Cursor of the next page, absent on the last page"),
+                            @Header(name = "Link", description = "Link to the next page, absent on the last page") }),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or cursor") })
     @RequestMapping(value = "/configurations/all",
             produces = { "application/json" },
             method = RequestMethod.GET)
-    ResponseEntity<List<ModelConfiguration>> findAllConfigurations();
+    ResponseEntity<List<ModelConfiguration>> findAllConfigurations(
+            @Parameter(in = ParameterIn.QUERY, description = "Maximum number of configurations to return, pages the listing", schema=@Schema()) @RequestParam(value = "limit", required = false) Integer limit,
+            @Parameter(in = ParameterIn.QUERY, description = "Cursor returned with the previous page", schema=@Schema()) @RequestParam(value = "after", required = false) String after);
 
 
-    @Operation(summary = "Update configuration in database", description = "Update an existing configuration in database. Accepts normalized (plain) JSON and stores it in denormalized format.", tags={ "Configuration Sharing Service" })
+    @Operation(summary = "Export all configurations normalized from database", description = "Stream all configurations from database, ordered by ID, as newline-delimited JSON with normalized (plain, readable) values. A failure part way ends the stream with a line holding only an error field", tags={ "Configuration Sharing Service" })
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "Successful operation", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class))),
-        @ApiResponse(responseCode = "404", description = "Configuration not found"),
+            @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(mediaType = "application/x-ndjson", schema = @Schema(implementation = ModelConfiguration.class))) })
+    @RequestMapping(value = "/configurations/export",
+            produces = { "application/x-ndjson" },
+            method = RequestMethod.GET)
+    ResponseEntity<StreamingResponseBody> exportConfigurations();
+
+
+    @Operation(summary = "Create or update configuration in database", description = "Create a configuration or replace an existing one in database. Accepts normalized (plain) JSON and stores it in denormalized format.", tags={ "Configuration Sharing Service" })
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Existing configuration replaced", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class))),
+        @ApiResponse(responseCode = "201", description = "Configuration created", content = @Content(mediaType = "application/json", schema = @Schema(implementation = ModelConfiguration.class))),
         @ApiResponse(responseCode = "422", description = "Validation exception") })
     @RequestMapping(value = "/configurations/{instance_id}",
         consumes = { "application/json" },
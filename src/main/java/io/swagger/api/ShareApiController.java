@@ -1,28 +1,52 @@
 package io.swagger.api;
 
+import io.swagger.model.BatchConfigurations;
+import io.swagger.model.ImportResult;
 import io.swagger.model.KeyCreated;
 import io.swagger.model.ModelConfiguration;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.epos.dbconnector.Configuration;
-import org.epos.dbconnector.ConfigurationMethod;
+import org.epos.dbconnector.ConfigurationRepository;
 import org.epos.dbconnector.util.AESUtil;
+import org.epos.dbconnector.util.Chunks;
 import org.epos.dbconnector.util.JsonUtil;
+import org.epos.dbconnector.util.PlaintextCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import jakarta.persistence.PersistenceException;
 import jakarta.validation.Valid;
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 
 @jakarta.annotation.Generated(value = "io.swagger.codegen.v3.generators.java.SpringCodegen", date = "2024-07-01T13:36:45.483299527Z[GMT]")
 @RestController
@@ -30,14 +54,48 @@ public class ShareApiController implements ShareApi {
 
     private static final Logger log = LoggerFactory.getLogger(ShareApiController.class);
 
+    private static final String STREAMING_THRESHOLD_DEFAULT = "1048576";
+
+    // Stored values of at least this many bytes (binary, not Base64) are streamed to the client
+    private static final int STREAMING_THRESHOLD = streamingThreshold();
+
+    private static final String PAGE_SIZE_DEFAULT = "100";
+    private static final String MAX_PAGE_SIZE_DEFAULT = "1000";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String MAX_BATCH_SIZE_DEFAULT = "1000";
+    private static final String IMPORT_CHUNK_SIZE_DEFAULT = "500";
+
+    // Listings return pages of PAGE_SIZE configurations unless the client asks for up to MAX_PAGE_SIZE
+    private static final int PAGE_SIZE = Integer.parseInt(env("CONFIGURATION_PAGE_SIZE", PAGE_SIZE_DEFAULT));
+    private static final int MAX_PAGE_SIZE = Integer.parseInt(env("CONFIGURATION_MAX_PAGE_SIZE", MAX_PAGE_SIZE_DEFAULT));
+
+    // Upper bound on the ids accepted by one batch request
+    private static final int MAX_BATCH_SIZE = Integer.parseInt(env("CONFIGURATION_MAX_BATCH_SIZE", MAX_BATCH_SIZE_DEFAULT));
+
+    // Configurations encrypted and inserted per transaction by imports
+    private static final int IMPORT_CHUNK_SIZE = Integer.parseInt(env("CONFIGURATION_IMPORT_CHUNK_SIZE", IMPORT_CHUNK_SIZE_DEFAULT));
+
+    private static final String CACHE_SIZE_DEFAULT = "67108864";
+    private static final String CACHE_OFFHEAP_SIZE_DEFAULT = "0";
+
+    // Normalized configurations keyed by ciphertext digest, null when CONFIGURATION_CACHE_SIZE is 0
+    private static final PlaintextCache plaintextCache = createPlaintextCache();
+
     private final ObjectMapper objectMapper;
 
     private final HttpServletRequest request;
 
+    private final ConfigurationRepository configurationRepository;
+
+    private final ConfigurationReadFlights readFlights;
+
     @org.springframework.beans.factory.annotation.Autowired
-    public ShareApiController(ObjectMapper objectMapper, HttpServletRequest request) {
+    public ShareApiController(ObjectMapper objectMapper, HttpServletRequest request, ConfigurationRepository configurationRepository,
+            ConfigurationReadFlights readFlights) {
         this.objectMapper = objectMapper;
         this.request = request;
+        this.configurationRepository = configurationRepository;
+        this.readFlights = readFlights;
     }
 
 
@@ -47,18 +105,11 @@ public class ShareApiController implements ShareApi {
         
         String key = body.getId()!=null? body.getId() : UUID.randomUUID().toString();
         
-        // Get the configuration value - decrypt if it comes encrypted
-        String configValue = body.getConfiguration();
-        if (AESUtil.isEncrypted(configValue)) {
-            log.info("Configuration is encrypted, will re-encrypt with fixed salt for storage");
-            configValue = AESUtil.decrypt(configValue);
-        }
-        
-        // Always store encrypted with fixed salt for deterministic storage
-        String encryptedValue = AESUtil.encryptDeterministic(configValue);
-        Configuration configuration = new Configuration(key, encryptedValue);
+        Configuration configuration = new Configuration(key, encryptForStorage(body.getConfiguration()));
 
-        ConfigurationMethod.saveConfiguration(configuration);
+        if (!configurationRepository.upsertConfiguration(configuration)) {
+            log.info("Replaced existing configuration {}", key);
+        }
         
         KeyCreated keyCreated = new KeyCreated();
         keyCreated.setKey(key);
@@ -66,73 +117,98 @@ public class ShareApiController implements ShareApi {
         return ResponseEntity.ok(keyCreated);
     }
 
-    public ResponseEntity<String> findConfigurationsByID(@Parameter(in = ParameterIn.PATH, description = "Status values that need to be considered for filter", required=true, schema=@Schema()) @PathVariable("instance_id") String configuration
+    public ResponseEntity<StreamingResponseBody> findConfigurationsByID(@Parameter(in = ParameterIn.PATH, description = "Status values that need to be considered for filter", required=true, schema=@Schema()) @PathVariable("instance_id") String configuration
 ) {
-        Configuration config = ConfigurationMethod.getConfigurationById(configuration);
+        // Reads started before the latest write of this id are not shared
+        PlainRead read = readFlights.plainReads.run(configuration, configurationRepository.getWriteStamp(configuration),
+                () -> readPlain(configuration));
         
-        if (config == null) {
+        if (read.config == null) {
             return ResponseEntity.notFound().build();
         }
         
-        // Decrypt the stored value, then normalize for readable output
-        String decryptedValue = AESUtil.decrypt(config.getConfiguration());
-        String normalizedValue = JsonUtil.normalize(decryptedValue);
+        if (read.normalized != null) {
+            byte[] normalizedValue = read.normalized.getBytes(StandardCharsets.UTF_8);
+            return ResponseEntity.ok(out -> out.write(normalizedValue));
+        }
         
-        return ResponseEntity.ok(normalizedValue);
+        // Large configurations are decrypted and normalized while being written to the response. They were
+        // checked to decrypt when read, so the response is not cut short once its status is sent.
+        if (!read.json) {
+            // Not JSON, returned as it is like smaller values that do not normalize
+            return ResponseEntity.ok(out -> decryptingStream(read.config).transferTo(out));
+        }
+        return ResponseEntity.ok(out -> JsonUtil.normalize(decryptingStream(read.config), out));
     }
 
-    public ResponseEntity<List<ModelConfiguration>> findAllConfigurations() {
-        List<Configuration> configs = ConfigurationMethod.getConfigurations();
-        
-        if (configs == null) {
-            return ResponseEntity.ok(new ArrayList<>());
+    public ResponseEntity<Void> existsConfiguration(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId) {
+        if (!configurationRepository.existsConfiguration(configurationId)) {
+            return ResponseEntity.notFound().build();
         }
         
+        return ResponseEntity.ok().build();
+    }
+
+    public ResponseEntity<List<ModelConfiguration>> findAllConfigurations(@Parameter(in = ParameterIn.QUERY, description = "Maximum number of configurations to return", schema=@Schema()) @RequestParam(value = "limit", required = false) Integer limit,
+            @Parameter(in = ParameterIn.QUERY, description = "Cursor returned with the previous page", schema=@Schema()) @RequestParam(value = "after", required = false) String after) {
         // Decrypt and normalize each configuration for readable output
-        List<ModelConfiguration> normalizedConfigs = new ArrayList<>();
-        for (Configuration config : configs) {
-            ModelConfiguration modelConfig = new ModelConfiguration();
-            modelConfig.setId(config.getId());
-            String decryptedValue = AESUtil.decrypt(config.getConfiguration());
-            modelConfig.setConfiguration(JsonUtil.normalize(decryptedValue));
-            normalizedConfigs.add(modelConfig);
+        return listConfigurations(limit, after, ShareApiController::decryptAndNormalize);
+    }
+
+    public ResponseEntity<StreamingResponseBody> exportConfigurations() {
+        // Decrypt and normalize row by row while the response is written
+        return exportConfigurations(ShareApiController::decryptAndNormalize);
+    }
+
+    public ResponseEntity<List<ImportResult>> importConfigurations(@Parameter(in = ParameterIn.DEFAULT, description = "Configurations", required=true, schema=@Schema()) @Valid @RequestBody List<ModelConfiguration> body) {
+        List<ImportResult> results = new ArrayList<>(body.size());
+        importConfigurations(body.iterator(), results);
+        return ResponseEntity.ok(results);
+    }
+
+    public ResponseEntity<List<ImportResult>> importConfigurationsStream() throws IOException {
+        // Items are read from the request body one at a time, one chunk is held in memory
+        List<ImportResult> results = new ArrayList<>();
+        try (MappingIterator<ModelConfiguration> items = objectMapper.readerFor(ModelConfiguration.class).readValues(request.getInputStream())) {
+            importConfigurations(items, results);
         }
-        
-        return ResponseEntity.ok(normalizedConfigs);
+        return ResponseEntity.ok(results);
     }
 
     public ResponseEntity<ModelConfiguration> findConfigurationsByIDEncrypted(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId) {
-        Configuration config = ConfigurationMethod.getConfigurationById(configurationId);
+        // Return the encrypted value from the database in the OpenSSL format clients expect
+        String encrypted = readFlights.encryptedReads.run(configurationId, configurationRepository.getWriteStamp(configurationId), () -> {
+            Configuration config = configurationRepository.getConfigurationById(configurationId);
+            return config != null ? toOpenSslFormat(config) : null;
+        });
         
-        if (config == null) {
+        if (encrypted == null) {
             return ResponseEntity.notFound().build();
         }
         
-        // Return the encrypted value directly from the database
         ModelConfiguration modelConfiguration = new ModelConfiguration();
         modelConfiguration.setId(configurationId);
-        modelConfiguration.setConfiguration(config.getConfiguration());
+        modelConfiguration.setConfiguration(encrypted);
         
         return ResponseEntity.ok(modelConfiguration);
     }
 
-    public ResponseEntity<List<ModelConfiguration>> findAllConfigurationsEncrypted() {
-        List<Configuration> configs = ConfigurationMethod.getConfigurations();
-        
-        if (configs == null) {
-            return ResponseEntity.ok(new ArrayList<>());
-        }
-        
-        // Return the encrypted values directly from the database
-        List<ModelConfiguration> encryptedConfigs = new ArrayList<>();
-        for (Configuration config : configs) {
-            ModelConfiguration modelConfig = new ModelConfiguration();
-            modelConfig.setId(config.getId());
-            modelConfig.setConfiguration(config.getConfiguration());
-            encryptedConfigs.add(modelConfig);
-        }
-        
-        return ResponseEntity.ok(encryptedConfigs);
+    public ResponseEntity<List<ModelConfiguration>> findAllConfigurationsEncrypted(@Parameter(in = ParameterIn.QUERY, description = "Maximum number of configurations to return", schema=@Schema()) @RequestParam(value = "limit", required = false) Integer limit,
+            @Parameter(in = ParameterIn.QUERY, description = "Cursor returned with the previous page", schema=@Schema()) @RequestParam(value = "after", required = false) String after) {
+        // Return the encrypted values from the database in the OpenSSL format clients expect
+        return listConfigurations(limit, after, ShareApiController::toOpenSslFormat);
+    }
+
+    public ResponseEntity<BatchConfigurations> findConfigurationsByIDs(@Parameter(in = ParameterIn.DEFAULT, description = "Configuration IDs", required=true, schema=@Schema()) @Valid @RequestBody List<String> ids) {
+        return findBatch(ids, ShareApiController::decryptAndNormalize);
+    }
+
+    public ResponseEntity<BatchConfigurations> findConfigurationsByIDsEncrypted(@Parameter(in = ParameterIn.DEFAULT, description = "Configuration IDs", required=true, schema=@Schema()) @Valid @RequestBody List<String> ids) {
+        return findBatch(ids, ShareApiController::toOpenSslFormat);
+    }
+
+    public ResponseEntity<StreamingResponseBody> exportConfigurationsEncrypted() {
+        return exportConfigurations(ShareApiController::toOpenSslFormat);
     }
 
     public ResponseEntity<ModelConfiguration> updateConfiguration(
@@ -144,26 +220,24 @@ public class ShareApiController implements ShareApi {
         log.info("Denormalized configuration for storage");
         
         // Encrypt with fixed salt for deterministic storage
-        String encryptedValue = AESUtil.encryptDeterministic(denormalizedValue);
+        byte[] encryptedValue = AESUtil.encryptDeterministicBinary(denormalizedValue);
         
         Configuration configuration = new Configuration(configurationId, encryptedValue);
         
-        boolean updated = ConfigurationMethod.updateConfiguration(configuration);
-        
-        if (!updated) {
-            return ResponseEntity.notFound().build();
-        }
+        boolean created = configurationRepository.upsertConfiguration(configuration);
         
         // Return the normalized version back to the client
         ModelConfiguration modelConfiguration = new ModelConfiguration();
         modelConfiguration.setId(configurationId);
         modelConfiguration.setConfiguration(body);
         
-        return ResponseEntity.ok(modelConfiguration);
+        return created
+                ? ResponseEntity.status(HttpStatus.CREATED).body(modelConfiguration)
+                : ResponseEntity.ok(modelConfiguration);
     }
 
     public ResponseEntity<Void> deleteConfiguration(@Parameter(in = ParameterIn.PATH, description = "Configuration ID", required=true, schema=@Schema()) @PathVariable("instance_id") String configurationId) {
-        boolean deleted = ConfigurationMethod.deleteConfiguration(configurationId);
+        boolean deleted = configurationRepository.deleteConfiguration(configurationId);
         
         if (!deleted) {
             return ResponseEntity.notFound().build();
@@ -172,4 +246,309 @@ public class ShareApiController implements ShareApi {
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Returns one page of configurations ordered by id, starting after the cursor. Only one page is
+     * ever held in memory; when more rows follow, the response carries the cursor of the next page.
+     * Without a limit or cursor, all configurations are returned, as before listings were paged.
+     */
+    private ResponseEntity<List<ModelConfiguration>> listConfigurations(Integer limit, String after, Function<Configuration, String> value) {
+        if (limit == null && after == null) {
+            List<Configuration> configs = configurationRepository.getConfigurations();
+            return ResponseEntity.ok(configs != null ? toModels(configs, value) : new ArrayList<>());
+        }
+        int pageSize = limit == null ? PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        if (pageSize <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        String afterId;
+        try {
+            afterId = after == null ? "" : new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        // Fetch one extra row to learn whether there is a next page
+        List<Configuration> configs = configurationRepository.getConfigurationPage(afterId, pageSize + 1);
+        boolean hasNext = configs.size() > pageSize;
+        if (hasNext) {
+            configs = configs.subList(0, pageSize);
+        }
+        
+        List<ModelConfiguration> page = toModels(configs, value);
+        
+        if (!hasNext) {
+            return ResponseEntity.ok(page);
+        }
+        String cursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(configs.get(configs.size() - 1).getId().getBytes(StandardCharsets.UTF_8));
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, cursor)
+                .header(HttpHeaders.LINK, "<?limit=" + pageSize + "&after=" + cursor + ">; rel=\"next\"")
+                .body(page);
+    }
+
+    private static List<ModelConfiguration> toModels(List<Configuration> configs, Function<Configuration, String> value) {
+        List<ModelConfiguration> models = new ArrayList<>(configs.size());
+        for (Configuration config : configs) {
+            ModelConfiguration modelConfig = new ModelConfiguration();
+            modelConfig.setId(config.getId());
+            modelConfig.setConfiguration(value.apply(config));
+            models.add(modelConfig);
+        }
+        return models;
+    }
+
+    /**
+     * Stores configurations in chunks, each inserted as one JDBC batch in its own transaction. Existing
+     * ids are left unchanged. Adds one result per item, in input order. When an item cannot be read,
+     * the items read before it are stored, and the import stops with an invalid result for the input.
+     */
+    private void importConfigurations(Iterator<ModelConfiguration> items, List<ImportResult> results) {
+        try {
+            Chunks.forEach(items, IMPORT_CHUNK_SIZE, chunk -> importChunk(chunk, results));
+        } catch (RuntimeException e) {
+            // Streamed items are parsed while iterating, and parse errors are wrapped in unchecked exceptions
+            if (!(e instanceof RuntimeJsonMappingException) && !(e.getCause() instanceof JsonProcessingException)) {
+                throw e;
+            }
+            log.warn("Malformed import input, stopped after {} items", results.size(), e);
+            results.add(new ImportResult(null, ImportResult.INVALID, "Malformed input, import stopped: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Encrypts and inserts one chunk. Items are encrypted on the request thread, as batch reads are
+     * converted, rather than on the common pool shared by every request. If the chunk cannot be
+     * inserted, its items are reported as failed and the import goes on with the next chunk.
+     */
+    private void importChunk(List<ModelConfiguration> chunk, List<ImportResult> results) {
+        // Items that cannot be stored get their result here
+        ImportResult[] chunkResults = new ImportResult[chunk.size()];
+        Configuration[] encrypted = new Configuration[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            ModelConfiguration item = chunk.get(i);
+            if (item == null) {
+                chunkResults[i] = new ImportResult(null, ImportResult.INVALID, "Missing item");
+                continue;
+            }
+            String key = item.getId() != null ? item.getId() : UUID.randomUUID().toString();
+            if (item.getConfiguration() == null) {
+                chunkResults[i] = new ImportResult(key, ImportResult.INVALID, "Missing configuration");
+                continue;
+            }
+            try {
+                encrypted[i] = new Configuration(key, encryptForStorage(item.getConfiguration()));
+            } catch (RuntimeException e) {
+                chunkResults[i] = new ImportResult(key, ImportResult.INVALID, e.getMessage());
+            }
+        }
+        
+        List<Configuration> valid = new ArrayList<>(chunk.size());
+        for (Configuration configuration : encrypted) {
+            if (configuration != null) valid.add(configuration);
+        }
+        boolean[] inserted = null;
+        String failure = null;
+        try {
+            inserted = configurationRepository.insertConfigurations(valid);
+        } catch (PersistenceException e) {
+            log.error("Could not store an import chunk of {} configurations", valid.size(), e);
+            failure = "Could not be stored: " + e.getMessage();
+        }
+        
+        int next = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            if (chunkResults[i] == null) {
+                String id = encrypted[i].getId();
+                chunkResults[i] = inserted == null
+                        ? new ImportResult(id, ImportResult.FAILED, failure)
+                        : new ImportResult(id, inserted[next++] ? ImportResult.CREATED : ImportResult.EXISTS, null);
+            }
+            results.add(chunkResults[i]);
+        }
+    }
+
+    /**
+     * Encrypts a configuration value for storage. Values that arrive encrypted are decrypted first,
+     * since every value is stored deterministically encrypted with the fixed salt.
+     */
+    private static byte[] encryptForStorage(String configValue) {
+        if (AESUtil.isEncrypted(configValue)) {
+            log.info("Configuration is encrypted, will re-encrypt with fixed salt for storage");
+            // Re-encrypt straight from the decrypted bytes, without building the plaintext String
+            return AESUtil.encryptDeterministicBinary(AESUtil.decryptToBuffer(configValue));
+        }
+        // Always store encrypted with fixed salt for deterministic storage
+        return AESUtil.encryptDeterministicBinary(configValue);
+    }
+
+    /**
+     * Fetches the requested configurations in one query and converts them one by one.
+     * Results keep the requested order; ids without a configuration, or whose stored value
+     * could not be converted, are listed as missing.
+     */
+    private ResponseEntity<BatchConfigurations> findBatch(List<String> ids, Function<Configuration, String> value) {
+        Set<String> requested = new LinkedHashSet<>(ids);
+        requested.remove(null);
+        if (requested.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        Map<String, String> converted = new HashMap<>();
+        for (Configuration config : configurationRepository.getConfigurationsByIds(requested)) {
+            try {
+                converted.put(config.getId(), value.apply(config));
+            } catch (RuntimeException e) {
+                log.error("Could not convert configuration {}, listing it as missing", config.getId(), e);
+            }
+        }
+        
+        BatchConfigurations batch = new BatchConfigurations();
+        for (String id : requested) {
+            String configuration = converted.get(id);
+            if (configuration != null) {
+                batch.getConfigurations().put(id, configuration);
+            } else {
+                batch.getMissing().add(id);
+            }
+        }
+        return ResponseEntity.ok(batch);
+    }
+
+    /**
+     * Writes every configuration as one line of JSON, reading them a page at a time, so memory use
+     * does not depend on the number of configurations. The first page is read before the response
+     * starts, so an unreachable database gives an error status. A failure once rows were sent ends
+     * the export with a line holding only an "error" field, as the status can no longer change.
+     */
+    private ResponseEntity<StreamingResponseBody> exportConfigurations(Function<Configuration, String> value) {
+        Iterator<Configuration> rows = configurationRepository.streamConfigurations().iterator();
+        rows.hasNext();
+        return ResponseEntity.ok(out -> {
+            try {
+                while (rows.hasNext()) {
+                    Configuration config = rows.next();
+                    ModelConfiguration modelConfig = new ModelConfiguration();
+                    modelConfig.setId(config.getId());
+                    modelConfig.setConfiguration(value.apply(config));
+                    out.write(objectMapper.writeValueAsBytes(modelConfig));
+                    out.write('\n');
+                }
+            } catch (RuntimeException e) {
+                log.error("Export failed, ending it with an error line", e);
+                out.write(objectMapper.writeValueAsBytes(Map.of("error", "Export failed, configurations are missing")));
+                out.write('\n');
+            }
+        });
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int streamingThreshold() {
+        String threshold = System.getenv("CONFIGURATION_STREAMING_THRESHOLD");
+        return Integer.parseInt(threshold == null ? STREAMING_THRESHOLD_DEFAULT : threshold);
+    }
+
+    private static PlaintextCache createPlaintextCache() {
+        String size = System.getenv("CONFIGURATION_CACHE_SIZE");
+        String offHeapSize = System.getenv("CONFIGURATION_CACHE_OFFHEAP_SIZE");
+        long maxHeapBytes = Long.parseLong(size == null ? CACHE_SIZE_DEFAULT : size);
+        long maxOffHeapBytes = Long.parseLong(offHeapSize == null ? CACHE_OFFHEAP_SIZE_DEFAULT : offHeapSize);
+        return maxHeapBytes > 0 ? new PlaintextCache(maxHeapBytes, maxOffHeapBytes) : null;
+    }
+
+    /**
+     * Looks a configuration up and, unless it is streamed, decrypts and normalizes it. A configuration
+     * that is streamed is decrypted and normalized once without keeping the output, so a value that
+     * does not decrypt fails here rather than after the response started.
+     */
+    private PlainRead readPlain(String id) {
+        Configuration config = configurationRepository.getConfigurationById(id);
+        if (config == null) {
+            return new PlainRead(null, null, false);
+        }
+        if (storedLength(config) >= STREAMING_THRESHOLD) {
+            return new PlainRead(config, null, normalizesStreaming(config));
+        }
+        // Decrypt the stored value, then normalize for readable output
+        return new PlainRead(config, decryptAndNormalize(config), true);
+    }
+
+    /**
+     * Decrypts and normalizes a stored value through the streaming pipeline, discarding the output.
+     *
+     * @return Whether the plaintext is JSON, false when it is to be returned as it is
+     * @throws UncheckedIOException if the value could not be decrypted
+     */
+    private static boolean normalizesStreaming(Configuration config) {
+        try (InputStream plaintext = decryptingStream(config)) {
+            JsonUtil.normalize(plaintext, OutputStream.nullOutputStream());
+            return true;
+        } catch (JsonProcessingException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not decrypt configuration " + config.getId(), e);
+        }
+    }
+
+    /**
+     * Returns the normalized plaintext of a stored value, from the plaintext cache when possible.
+     */
+    private static String decryptAndNormalize(Configuration config) {
+        if (plaintextCache == null) {
+            return decryptAndNormalizeUncached(config);
+        }
+        return config.isBinary()
+                ? plaintextCache.get(config.getConfigurationBin(), () -> decryptAndNormalizeUncached(config))
+                : plaintextCache.get(config.getConfiguration(), () -> decryptAndNormalizeUncached(config));
+    }
+
+    /**
+     * Decrypts a stored value and normalizes the plaintext bytes directly, without an intermediate String.
+     */
+    private static String decryptAndNormalizeUncached(Configuration config) {
+        ByteBuffer decrypted = config.isBinary()
+                ? AESUtil.decryptToBuffer(config.getConfigurationBin())
+                : AESUtil.decryptToBuffer(config.getConfiguration());
+        return JsonUtil.normalize(decrypted.array(), decrypted.arrayOffset() + decrypted.position(), decrypted.remaining());
+    }
+
+    private static InputStream decryptingStream(Configuration config) throws IOException {
+        return config.isBinary()
+                ? AESUtil.decryptingStream(config.getConfigurationBin())
+                : AESUtil.decryptingStream(config.getConfiguration());
+    }
+
+    private static String toOpenSslFormat(Configuration config) {
+        return config.isBinary()
+                ? AESUtil.toOpenSslFormat(config.getConfigurationBin())
+                : AESUtil.toOpenSslFormat(config.getConfiguration());
+    }
+
+    /**
+     * Returns the binary size of a stored value, whichever column it was read from.
+     */
+    private static long storedLength(Configuration config) {
+        return config.isBinary() ? config.getConfigurationBin().length : config.getConfiguration().length() / 4L * 3;
+    }
+
+    /**
+     * A configuration read by id: null if there is none, with its normalized plaintext unless it is streamed,
+     * and whether a streamed plaintext is JSON.
+     */
+    static final class PlainRead {
+        private final Configuration config;
+        private final String normalized;
+        private final boolean json;
+
+        private PlainRead(Configuration config, String normalized, boolean json) {
+            this.config = config;
+            this.normalized = normalized;
+            this.json = json;
+        }
+    }
+
 }
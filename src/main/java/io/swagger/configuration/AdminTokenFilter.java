@@ -0,0 +1,56 @@
+package io.swagger.configuration;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Requires the bearer token in CONFIGURATION_ADMIN_TOKEN on every request to the /admin API.
+ * Without the variable set, the /admin API answers 403 to every request.
+ */
+@Component
+public class AdminTokenFilter implements Filter {
+
+    private static final String ADMIN_PATH = "/admin/";
+    private static final String BEARER = "Bearer ";
+
+    private final byte[] token = adminToken();
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        if (!path.startsWith(ADMIN_PATH)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (token == null) {
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "The admin API is disabled, set CONFIGURATION_ADMIN_TOKEN");
+            return;
+        }
+        String authorization = httpRequest.getHeader("Authorization");
+        // Compared in constant time, so the token cannot be guessed from response times
+        if (authorization == null || !authorization.startsWith(BEARER)
+                || !MessageDigest.isEqual(token, authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8))) {
+            httpResponse.setHeader("WWW-Authenticate", "Bearer");
+            httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static byte[] adminToken() {
+        String token = System.getenv("CONFIGURATION_ADMIN_TOKEN");
+        return token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,33 @@
+package io.swagger.configuration;
+
+import org.epos.dbconnector.service.CompressionDictionaryService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint for the compression stage.
+ * The read operation reports whether compression is enabled and the active dictionary, the write
+ * operation trains a new dictionary. Exposed over JMX only, as training decrypts sampled configurations
+ * and changes how new ones are stored.
+ */
+@Component
+@Endpoint(id = "compression")
+public class CompressionEndpoint {
+
+    private final CompressionDictionaryService service = new CompressionDictionaryService();
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return service.getStatus();
+    }
+
+    @WriteOperation
+    public Map<String, Object> train(@Nullable Integer sampleSize, @Nullable Integer dictionarySize) {
+        return service.train(sampleSize, dictionarySize);
+    }
+}
@@ -0,0 +1,38 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.service.ConfigurationChangeListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the change notifications received from other instances and the state of the
+ * listener connection to the actuator metrics endpoint.
+ */
+@Component
+public class ConfigurationChangeMetrics implements MeterBinder {
+
+    private final ConfigurationChangeListener listener;
+
+    public ConfigurationChangeMetrics(ConfigurationChangeListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("configurations.changes.notifications", listener, ConfigurationChangeListener::getNotifications)
+                .description("Configuration change notifications received, each evicting the ids changed by one statement")
+                .register(registry);
+        FunctionCounter.builder("configurations.changes.reconnects", listener, ConfigurationChangeListener::getReconnects)
+                .description("Reconnections of the change listener, each dropping all cached configurations")
+                .register(registry);
+        Gauge.builder("configurations.changes.connected", listener, l -> l.isConnected() ? 1 : 0)
+                .description("Whether the change listener is connected")
+                .register(registry);
+        Gauge.builder("configurations.changes.triggers", listener, l -> l.isTriggersInstalled() ? 1 : 0)
+                .description("Whether the triggers sending change notifications are installed")
+                .register(registry);
+    }
+}
@@ -0,0 +1,38 @@
+package io.swagger.configuration;
+
+import org.epos.dbconnector.service.ConfigurationCopyService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Actuator endpoint snapshotting and restoring the configurations table to and from local files
+ * in CONFIGURATION_COPY_DIRECTORY, invoked with direction "export" or "import" and a file name.
+ * Exposed over JMX only, as it reads and writes server files and replaces stored configurations.
+ */
+@Component
+@Endpoint(id = "configurationcopy")
+public class ConfigurationCopyEndpoint {
+
+    private final ConfigurationCopyService service;
+
+    public ConfigurationCopyEndpoint(ConfigurationCopyService service) {
+        this.service = service;
+    }
+
+    @WriteOperation
+    public Map<String, Object> copy(String direction, String file, @Nullable Boolean replace) throws IOException {
+        switch (direction) {
+            case "export":
+                return service.exportToFile(file);
+            case "import":
+                return service.importFromFile(file, Boolean.TRUE.equals(replace));
+            default:
+                throw new IllegalArgumentException("Unsupported direction: " + direction);
+        }
+    }
+}
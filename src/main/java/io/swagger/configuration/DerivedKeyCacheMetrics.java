@@ -0,0 +1,33 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.util.AESUtil;
+import org.epos.dbconnector.util.DerivedKeyCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes hits, misses and size of the derived AES key cache to the actuator metrics endpoint.
+ * Once the fixed-salt keys are cached, misses stop growing while reads go on.
+ */
+@Component
+public class DerivedKeyCacheMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        DerivedKeyCache cache = AESUtil.getDerivedKeyCache();
+        FunctionCounter.builder("aes.derivedkeys.gets", cache, DerivedKeyCache::getHits)
+                .description("Key derivations for the fixed salt served from the derived key cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("aes.derivedkeys.gets", cache, DerivedKeyCache::getMisses)
+                .description("Key derivations for the fixed salt computed and added to the derived key cache")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("aes.derivedkeys.size", cache, DerivedKeyCache::size)
+                .description("Entries in the derived key cache")
+                .register(registry);
+    }
+}
@@ -0,0 +1,37 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.ConfigurationMethod;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes hits and misses of the shared entity cache for configuration lookups by id,
+ * and the resulting hit ratio, to the actuator metrics endpoint.
+ */
+@Component
+public class EntityCacheMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("configurations.cache.gets", ConfigurationMethod.class, c -> ConfigurationMethod.getSharedCacheHits())
+                .description("Configuration lookups by id served from the shared entity cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("configurations.cache.gets", ConfigurationMethod.class, c -> ConfigurationMethod.getSharedCacheMisses())
+                .description("Configuration lookups by id that queried the database")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("configurations.cache.hit.ratio", ConfigurationMethod.class, c -> hitRatio())
+                .description("Share of configuration lookups by id served from the shared entity cache")
+                .register(registry);
+    }
+
+    private static double hitRatio() {
+        long hits = ConfigurationMethod.getSharedCacheHits();
+        long total = hits + ConfigurationMethod.getSharedCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,27 @@
+package io.swagger.configuration;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.epos.dbconnector.service.DBService;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Lets all database calls made while handling a request share one EntityManager, which is
+ * closed when the request completes, whether or not it failed. Streamed response bodies are
+ * written after this filter returns, on another thread, and open their own EntityManagers.
+ */
+@Component
+public class EntityManagerScopeFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try (DBService.Scope scope = DBService.openScope()) {
+            chain.doFilter(request, response);
+        }
+    }
+}
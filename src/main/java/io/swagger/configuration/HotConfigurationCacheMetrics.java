@@ -0,0 +1,67 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.Configuration;
+import org.epos.dbconnector.ConfigurationRepository;
+import org.epos.dbconnector.util.TinyLfuCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes hits, misses, evictions and weight of the hot configuration cache to the actuator
+ * metrics endpoint. Nothing is published when the cache is disabled.
+ */
+@Component
+public class HotConfigurationCacheMetrics implements MeterBinder {
+
+    private final ConfigurationRepository configurationRepository;
+
+    public HotConfigurationCacheMetrics(ConfigurationRepository configurationRepository) {
+        this.configurationRepository = configurationRepository;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TinyLfuCache<String, Configuration> cache = configurationRepository.getHotCache();
+        if (cache == null) {
+            return;
+        }
+        FunctionCounter.builder("configurations.hotcache.gets", cache, TinyLfuCache::getHits)
+                .description("Configuration lookups by id served from the hot configuration cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("configurations.hotcache.gets", cache, TinyLfuCache::getMisses)
+                .description("Configuration lookups by id missing from the hot configuration cache")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("configurations.hotcache.hit.ratio", cache, HotConfigurationCacheMetrics::hitRatio)
+                .description("Share of configuration lookups by id served from the hot configuration cache")
+                .register(registry);
+        FunctionCounter.builder("configurations.hotcache.evictions", cache, TinyLfuCache::getEvictions)
+                .description("Configurations evicted from the hot configuration cache or refused by its admission policy")
+                .register(registry);
+        FunctionCounter.builder("configurations.hotcache.evicted.weight", cache, TinyLfuCache::getEvictedWeight)
+                .description("Estimated heap size of the configurations evicted from the hot configuration cache")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("configurations.hotcache.weight", cache, TinyLfuCache::getWeight)
+                .description("Estimated heap size of the configurations in the hot configuration cache")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("configurations.hotcache.weight.max", cache, TinyLfuCache::getMaxWeight)
+                .description("Maximum heap size of the hot configuration cache")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("configurations.hotcache.size", cache, TinyLfuCache::size)
+                .description("Configurations in the hot configuration cache")
+                .register(registry);
+    }
+
+    private static double hitRatio(TinyLfuCache<?, ?> cache) {
+        long hits = cache.getHits();
+        long total = hits + cache.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
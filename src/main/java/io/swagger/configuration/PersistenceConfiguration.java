@@ -0,0 +1,43 @@
+package io.swagger.configuration;
+
+import org.epos.dbconnector.ConfigurationMethod;
+import org.epos.dbconnector.ConfigurationRepository;
+import org.epos.dbconnector.service.ConfigurationChangeListener;
+import org.epos.dbconnector.service.ConfigurationCopyService;
+import org.epos.dbconnector.service.DBService;
+import org.epos.dbconnector.service.ReEncryptionJob;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PersistenceConfiguration {
+
+    /**
+     * The repository shared with code outside Spring, which reaches it through {@link ConfigurationMethod}.
+     */
+    @Bean
+    public ConfigurationRepository configurationRepository() {
+        return ConfigurationMethod.getRepository();
+    }
+
+    /**
+     * Evicts configurations written by other instances from this instance's caches, started with the application.
+     */
+    @Bean(destroyMethod = "stop")
+    public ConfigurationChangeListener configurationChangeListener(ConfigurationRepository configurationRepository) {
+        return new ConfigurationChangeListener(configurationRepository);
+    }
+
+    @Bean
+    public ConfigurationCopyService configurationCopyService(ConfigurationRepository configurationRepository) {
+        return new ConfigurationCopyService(new DBService(), configurationRepository);
+    }
+
+    /**
+     * Re-encrypts stored configurations on demand, stopped with the application.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ReEncryptionJob reEncryptionJob() {
+        return new ReEncryptionJob();
+    }
+}
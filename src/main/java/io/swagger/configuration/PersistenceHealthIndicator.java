@@ -0,0 +1,51 @@
+package io.swagger.configuration;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.epos.dbconnector.service.EntityManagerFactoryProvider;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports the persistence unit as up once it is warmed up, see {@link EntityManagerFactoryProvider#initialize()}.
+ * Part of the readiness group, so the service only takes traffic at steady-state latency. While down,
+ * a check starts a retry of the warm-up in the background, unless one is already running, and
+ * reports down without waiting for it.
+ */
+@Component
+public class PersistenceHealthIndicator implements HealthIndicator {
+
+    private final AtomicBoolean retrying = new AtomicBoolean();
+
+    @Override
+    public Health health() {
+        if (!EntityManagerFactoryProvider.isInitialized()) {
+            retryInBackground();
+            return Health.down().withDetail("reason", "Persistence unit not initialized").build();
+        }
+        Health.Builder health = Health.up();
+        HikariPoolMXBean pool = EntityManagerFactoryProvider.getPoolMXBean();
+        if (pool != null) {
+            health.withDetail("activeConnections", pool.getActiveConnections())
+                    .withDetail("idleConnections", pool.getIdleConnections());
+        }
+        return health.build();
+    }
+
+    private void retryInBackground() {
+        if (!retrying.compareAndSet(false, true)) {
+            return;
+        }
+        Thread retry = new Thread(() -> {
+            try {
+                EntityManagerFactoryProvider.initialize();
+            } finally {
+                retrying.set(false);
+            }
+        }, "persistence-warm-up");
+        retry.setDaemon(true);
+        retry.start();
+    }
+}
@@ -0,0 +1,61 @@
+package io.swagger.configuration;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.service.DBService;
+import org.epos.dbconnector.service.EntityManagerFactoryProvider;
+import org.epos.dbconnector.service.RoutingDataSource;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Publishes open EntityManagers, transactions left open, and connection pool usage, so leaks
+ * show up before they exhaust the pool, and how many reads went to read replicas.
+ */
+@Component
+public class PersistenceMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("db.entitymanagers.open", DBService.class, c -> DBService.getOpenEntityManagers())
+                .description("EntityManagers opened and not closed yet")
+                .register(registry);
+        FunctionCounter.builder("db.transactions.leaked", DBService.class, c -> DBService.getLeakedTransactions())
+                .description("Transactions still active at the end of their request, which were rolled back")
+                .register(registry);
+        poolGauge(registry, "db.pool.connections.active", "Connections in use", HikariPoolMXBean::getActiveConnections);
+        poolGauge(registry, "db.pool.connections.idle", "Idle connections", HikariPoolMXBean::getIdleConnections);
+        poolGauge(registry, "db.pool.connections.pending", "Threads waiting for a connection", HikariPoolMXBean::getThreadsAwaitingConnection);
+        FunctionCounter.builder("db.replica.connections", EntityManagerFactoryProvider.class, c -> {
+                    RoutingDataSource routing = EntityManagerFactoryProvider.getRoutingDataSource();
+                    return routing != null ? routing.getReplicaConnections() : 0;
+                })
+                .description("Connections taken from read replica pools")
+                .register(registry);
+        FunctionCounter.builder("db.replica.fallbacks", EntityManagerFactoryProvider.class, c -> {
+                    RoutingDataSource routing = EntityManagerFactoryProvider.getRoutingDataSource();
+                    return routing != null ? routing.getFallbacks() : 0;
+                })
+                .description("Replica reads sent to the primary because no replica connection was available")
+                .register(registry);
+        Gauge.builder("db.replica.usable", EntityManagerFactoryProvider.class, c -> {
+                    RoutingDataSource routing = EntityManagerFactoryProvider.getRoutingDataSource();
+                    return routing != null ? routing.getUsableReplicas() : 0;
+                })
+                .description("Read replicas neither failing nor lagging behind")
+                .register(registry);
+    }
+
+    private static void poolGauge(MeterRegistry registry, String name, String description, ToIntFunction<HikariPoolMXBean> value) {
+        Gauge.builder(name, EntityManagerFactoryProvider.class, c -> {
+                    HikariPoolMXBean pool = EntityManagerFactoryProvider.getPoolMXBean();
+                    return pool != null ? value.applyAsInt(pool) : Double.NaN;
+                })
+                .description(description)
+                .register(registry);
+    }
+}
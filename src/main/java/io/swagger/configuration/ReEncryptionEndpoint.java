@@ -0,0 +1,44 @@
+package io.swagger.configuration;
+
+import org.epos.dbconnector.service.ReEncryptionJob;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint controlling the background re-encryption of stored configurations.
+ * The read operation reports progress and rate, the write operation starts the job, the delete
+ * operation stops it. Exposed over JMX only, as it rewrites every stored configuration.
+ */
+@Component
+@Endpoint(id = "reencryption")
+public class ReEncryptionEndpoint {
+
+    private final ReEncryptionJob job;
+
+    public ReEncryptionEndpoint(ReEncryptionJob job) {
+        this.job = job;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return job.getStatus();
+    }
+
+    @WriteOperation
+    public Map<String, Object> start(@Nullable Integer batchSize, @Nullable Integer maxRowsPerSecond) {
+        job.start(batchSize, maxRowsPerSecond);
+        return job.getStatus();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> stop() {
+        job.stop();
+        return job.getStatus();
+    }
+}
@@ -0,0 +1,39 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.swagger.api.ConfigurationReadFlights;
+import org.epos.dbconnector.util.SingleFlight;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes how many reads of configurations by id ran and how many were collapsed into a read
+ * of the same id already in progress, to the actuator metrics endpoint.
+ */
+@Component
+public class ReadCoalescingMetrics implements MeterBinder {
+
+    private final ConfigurationReadFlights readFlights;
+
+    public ReadCoalescingMetrics(ConfigurationReadFlights readFlights) {
+        this.readFlights = readFlights;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, readFlights.getPlainReads(), "plain");
+        bind(registry, readFlights.getEncryptedReads(), "encrypted");
+    }
+
+    private static void bind(MeterRegistry registry, SingleFlight<String, ?> reads, String format) {
+        FunctionCounter.builder("configurations.reads.loads", reads, SingleFlight::getLoads)
+                .description("Reads of configurations by id that looked the configuration up")
+                .tag("format", format)
+                .register(registry);
+        FunctionCounter.builder("configurations.reads.collapsed", reads, SingleFlight::getCollapsed)
+                .description("Reads of configurations by id that shared a read of the same id in progress")
+                .tag("format", format)
+                .register(registry);
+    }
+}
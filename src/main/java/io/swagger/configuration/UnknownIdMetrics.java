@@ -0,0 +1,42 @@
+package io.swagger.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.epos.dbconnector.ConfigurationRepository;
+import org.epos.dbconnector.util.NegativeCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the lookups of unknown configuration ids answered without a query, by the id filter
+ * or by the negative cache, to the actuator metrics endpoint.
+ */
+@Component
+public class UnknownIdMetrics implements MeterBinder {
+
+    private final ConfigurationRepository configurationRepository;
+
+    public UnknownIdMetrics(ConfigurationRepository configurationRepository) {
+        this.configurationRepository = configurationRepository;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("configurations.unknown.rejected", configurationRepository, ConfigurationRepository::getFilteredLookups)
+                .description("Lookups of unknown configuration ids answered by the id filter")
+                .tag("source", "filter")
+                .register(registry);
+        NegativeCache negativeCache = configurationRepository.getNegativeCache();
+        if (negativeCache == null) {
+            return;
+        }
+        FunctionCounter.builder("configurations.unknown.rejected", negativeCache, NegativeCache::getHits)
+                .description("Lookups of unknown configuration ids answered by the negative cache")
+                .tag("source", "negativecache")
+                .register(registry);
+        Gauge.builder("configurations.negativecache.size", negativeCache, NegativeCache::size)
+                .description("Unknown configuration ids in the negative cache")
+                .register(registry);
+    }
+}
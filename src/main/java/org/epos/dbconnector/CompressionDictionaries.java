@@ -0,0 +1,75 @@
+package org.epos.dbconnector;
+
+import jakarta.persistence.*;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Objects;
+
+@Entity
+@Table(name = "compression_dictionaries", schema = "sharing_catalogue")
+@NamedQueries({
+        @NamedQuery(name = "compressionDictionaries.findById", query = "SELECT d FROM CompressionDictionaries d where d.id = :ID"),
+        @NamedQuery(name = "compressionDictionaries.findLatest", query = "SELECT d FROM CompressionDictionaries d order by d.created desc")
+})
+public class CompressionDictionaries {
+    private Long id;
+    private byte[] dictionary;
+    private Timestamp created;
+
+    /**
+     * The Adler-32 checksum of the dictionary, as recorded in the zlib header of payloads compressed with it.
+     */
+	@Id
+    @Column(name = "id", nullable = false)
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Basic
+    @Column(name = "dictionary", nullable = false, columnDefinition = "BYTEA")
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Basic
+    @Column(name = "created", nullable = false)
+    public Timestamp getCreated() {
+        return created;
+    }
+
+    public void setCreated(Timestamp created) {
+        this.created = created;
+    }
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(Arrays.hashCode(dictionary), id, created);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		CompressionDictionaries other = (CompressionDictionaries) obj;
+		return Arrays.equals(dictionary, other.dictionary) && Objects.equals(id, other.id)
+				&& Objects.equals(created, other.created);
+	}
+
+	@Override
+	public String toString() {
+		return "CompressionDictionaries [id=" + id + ", dictionary=" + (dictionary == null ? null : dictionary.length + " bytes")
+				+ ", created=" + created + "]";
+	}
+}
@@ -1,9 +1,12 @@
 package org.epos.dbconnector;
 
+import java.util.Base64;
+
 public class Configuration {
 	
 	private String id;
 	private String configuration;
+	private byte[] configurationBin;
 	
 	public Configuration() {
 		super();
@@ -15,6 +18,15 @@ public class Configuration {
 		this.configuration = configuration;
 	}
 
+	/**
+	 * Creates a configuration holding the binary (not Base64 encoded) encrypted value.
+	 */
+	public Configuration(String id, byte[] configurationBin) {
+		super();
+		this.id = id;
+		this.configurationBin = configurationBin;
+	}
+
 	public String getId() {
 		return id;
 	}
@@ -23,14 +35,42 @@ public class Configuration {
 		this.id = id;
 	}
 
+	/**
+	 * Returns the encrypted value Base64 encoded, encoding it if it is held in binary form.
+	 */
 	public String getConfiguration() {
+		if (configuration == null && configurationBin != null) {
+			return Base64.getEncoder().encodeToString(configurationBin);
+		}
 		return configuration;
 	}
 
 	public void setConfiguration(String configuration) {
 		this.configuration = configuration;
+		this.configurationBin = null;
+	}
+
+	/**
+	 * Returns the binary encrypted value, decoding it if it is held Base64 encoded.
+	 * The returned array may be shared and must not be modified.
+	 */
+	public byte[] getConfigurationBin() {
+		if (configurationBin == null && configuration != null) {
+			return Base64.getDecoder().decode(configuration);
+		}
+		return configurationBin;
+	}
+
+	public void setConfigurationBin(byte[] configurationBin) {
+		this.configurationBin = configurationBin;
+		this.configuration = null;
+	}
+
+	/**
+	 * Returns whether the value is held in binary form, as read from the bytea column.
+	 */
+	public boolean isBinary() {
+		return configurationBin != null;
 	}
-	
-	
 
 }
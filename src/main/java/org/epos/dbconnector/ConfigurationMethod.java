@@ -1,134 +1,100 @@
 package org.epos.dbconnector;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
-import jakarta.persistence.EntityManager;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import org.epos.dbconnector.service.DBService;
-import org.epos.dbconnector.util.MappingToAndFromCommonBean;
-
-import static org.epos.dbconnector.util.DBUtil.getFromDB;
-import static org.epos.dbconnector.util.DBUtil.getOneFromDB;
 
+/**
+ * Static access to the application's {@link ConfigurationRepository}, for code outside Spring.
+ * Spring components get the same instance injected. See the repository for what each method does.
+ */
 public class ConfigurationMethod {
-	
-	private static final DBService dbService = new DBService();
 
-	public static Configuration getConfigurationById(String id) {
-		EntityManager em = dbService.getEntityManager();
-		Configurations fromDB = getOneFromDB(em,
-				Configurations.class,
-				"configurations.findById",
-				"ID", id);
-		em.close();
+	private static final ConfigurationRepository repository = new ConfigurationRepository(new DBService());
 
-		return fromDB != null ? MappingToAndFromCommonBean.map(fromDB) : null;
+	/**
+	 * Returns the repository all methods of this class delegate to.
+	 */
+	public static ConfigurationRepository getRepository() {
+		return repository;
 	}
 
-	public static List<Configuration> getConfigurations() {
-		EntityManager em = dbService.getEntityManager();
-		List<Configurations> fromDB = getFromDB(em,
-				Configurations.class,
-				"configurations.findAll");
-		em.close();
-
-		return fromDB != null ? MappingToAndFromCommonBean.map(fromDB) : null;
+	public static Configuration getConfigurationById(String id) {
+		return repository.getConfigurationById(id);
 	}
 
-	public static void saveConfiguration(Configuration environment) {
-		Objects.requireNonNull(environment, "The passed configuration is null");
+	public static List<Configuration> getConfigurations() {
+		return repository.getConfigurations();
+	}
 
-		EntityManager em = dbService.getEntityManager();
-		em.getTransaction().begin();
+	public static List<Configuration> getConfigurationPage(String afterId, int limit) {
+		return repository.getConfigurationPage(afterId, limit);
+	}
 
-		Configurations p = new Configurations();
-		if(environment.getId()!=null) p.setId(environment.getId());
-		else p.setId(UUID.randomUUID().toString());
+	public static List<Configuration> getConfigurationsByIds(Collection<String> ids) {
+		return repository.getConfigurationsByIds(ids);
+	}
 
-		Objects.requireNonNull(environment.getConfiguration(), "Missing configuration");
+	public static Stream<Configuration> streamConfigurations() {
+		return repository.streamConfigurations();
+	}
 
-		p.setConfiguration(environment.getConfiguration());
-		em.persist(p);
+	public static int updateConfigurationsIfUnchanged(List<Configuration> replacements, Map<String, Configuration> expectedById) {
+		return repository.updateConfigurationsIfUnchanged(replacements, expectedById);
+	}
 
-		em.getTransaction().commit();
-		em.getEntityManagerFactory().getCache().evictAll();
+	public static boolean isBinaryStorage() {
+		return repository.isBinaryStorage();
+	}
 
-		em.close();
+	public static void saveConfiguration(Configuration environment) {
+		repository.saveConfiguration(environment);
 	}
 
 	public static boolean updateConfiguration(Configuration environment) {
-		Objects.requireNonNull(environment, "The passed configuration is null");
-		Objects.requireNonNull(environment.getId(), "Missing configuration ID");
-		Objects.requireNonNull(environment.getConfiguration(), "Missing configuration");
-
-		EntityManager em = dbService.getEntityManager();
-		em.getTransaction().begin();
-
-		Configurations existing = getOneFromDB(em,
-				Configurations.class,
-				"configurations.findById",
-				"ID", environment.getId());
-
-		if (existing == null) {
-			em.getTransaction().rollback();
-			em.close();
-			return false;
-		}
-
-		existing.setConfiguration(environment.getConfiguration());
-		em.merge(existing);
+		return repository.updateConfiguration(environment);
+	}
 
-		em.getTransaction().commit();
-		em.getEntityManagerFactory().getCache().evictAll();
+	public static boolean upsertConfiguration(Configuration environment) {
+		return repository.upsertConfiguration(environment);
+	}
 
-		em.close();
-		return true;
+	public static boolean[] insertConfigurations(List<Configuration> configurations) {
+		return repository.insertConfigurations(configurations);
 	}
 
 	public static boolean deleteConfiguration(String id) {
-		Objects.requireNonNull(id, "The passed configuration ID is null");
-
-		EntityManager em = dbService.getEntityManager();
-		em.getTransaction().begin();
-
-		Configurations existing = getOneFromDB(em,
-				Configurations.class,
-				"configurations.findById",
-				"ID", id);
-
-		if (existing == null) {
-			em.getTransaction().rollback();
-			em.close();
-			return false;
-		}
-
-		em.remove(existing);
-
-		em.getTransaction().commit();
-		em.getEntityManagerFactory().getCache().evictAll();
-
-		em.close();
-		return true;
+		return repository.deleteConfiguration(id);
 	}
 
 	public static boolean existsConfiguration(String id) {
-		Objects.requireNonNull(id, "The passed configuration ID is null");
-
-		EntityManager em = dbService.getEntityManager();
-		Configurations existing = getOneFromDB(em,
-				Configurations.class,
-				"configurations.findById",
-				"ID", id);
-		em.close();
-
-		return existing != null;
+		return repository.existsConfiguration(id);
 	}
-}
-
 
+	public static void evictAll() {
+		repository.evictAll();
+	}
 
+	public static long getSharedCacheHits() {
+		return repository.getSharedCacheHits();
+	}
 
+	public static long getSharedCacheMisses() {
+		return repository.getSharedCacheMisses();
+	}
 
+	public static byte[] getCompressionDictionary(long id) {
+		return repository.getCompressionDictionary(id);
+	}
 
+	public static byte[] getLatestCompressionDictionary() {
+		return repository.getLatestCompressionDictionary();
+	}
 
+	public static void saveCompressionDictionary(long id, byte[] dictionary) {
+		repository.saveCompressionDictionary(id, dictionary);
+	}
+}
@@ -0,0 +1,898 @@
+package org.epos.dbconnector;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.TypedQuery;
+
+import org.epos.dbconnector.service.DBService;
+import org.epos.dbconnector.service.EntityManagerFactoryProvider;
+import org.epos.dbconnector.service.RoutingDataSource;
+import org.epos.dbconnector.util.BloomFilter;
+import org.epos.dbconnector.util.MappingToAndFromCommonBean;
+import org.epos.dbconnector.util.NegativeCache;
+import org.epos.dbconnector.util.ReadYourWrites;
+import org.epos.dbconnector.util.TinyLfuCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.epos.dbconnector.util.DBUtil.getFromDB;
+
+/**
+ * Reads and writes configurations. Every method releases its EntityManager, also on failure;
+ * inside a {@link DBService#openScope() scope} the calls of one request share an EntityManager.
+ *
+ * The application uses one instance: Spring injects it, code outside Spring reaches it
+ * through {@link ConfigurationMethod}.
+ */
+public class ConfigurationRepository {
+	
+	private static final Logger log = LoggerFactory.getLogger(ConfigurationRepository.class);
+
+	private final DBService dbService;
+
+	private static final String STORAGE_COLUMN_DEFAULT = "text";
+	private static final String EXPORT_FETCH_SIZE_DEFAULT = "100";
+	private static final String HOT_CACHE_SIZE_DEFAULT = "16777216";
+	private static final String ID_FILTER_ENABLED_DEFAULT = "false";
+	private static final String ID_FILTER_FPP_DEFAULT = "0.01";
+	private static final String ID_FILTER_REBUILD_INTERVAL_DEFAULT = "300";
+	private static final String NEGATIVE_CACHE_SIZE_DEFAULT = "10000";
+	private static final String NEGATIVE_CACHE_TTL_DEFAULT = "60000";
+
+	// Smallest number of ids the filter is sized for, and rows fetched per round-trip when loading them
+	private static final long ID_FILTER_MIN_SIZE = 10000;
+	private static final int ID_FILTER_FETCH_SIZE = 10000;
+
+	private static final Map<String, Object> REPLICA_READ_HINTS = Map.of("jakarta.persistence.cache.storeMode", CacheStoreMode.BYPASS);
+
+	// Rough heap cost of a cached configuration besides its id and value
+	private static final long HOT_CACHE_ENTRY_OVERHEAD = 160;
+
+	// Whether new values go to the bytea column instead of the Base64 TEXT column
+	private final boolean binaryStorage = binaryStorage();
+
+	// Inserts or replaces a configuration in one statement. xmax is only 0 on a freshly inserted row
+	// version, so the returned flag tells a created row from a replaced one.
+	private static final String UPSERT_TEXT = "INSERT INTO sharing_catalogue.configurations (id, configuration, configuration_bin) VALUES (?, ?, NULL) "
+			+ "ON CONFLICT (id) DO UPDATE SET configuration = EXCLUDED.configuration, configuration_bin = NULL RETURNING (xmax = 0)";
+	private static final String UPSERT_BIN = "INSERT INTO sharing_catalogue.configurations (id, configuration, configuration_bin) VALUES (?, NULL, ?) "
+			+ "ON CONFLICT (id) DO UPDATE SET configuration = NULL, configuration_bin = EXCLUDED.configuration_bin RETURNING (xmax = 0)";
+
+	private static final String INSERT_TEXT = "INSERT INTO sharing_catalogue.configurations (id, configuration, configuration_bin) VALUES (?, ?, NULL) ON CONFLICT (id) DO NOTHING";
+	private static final String INSERT_BIN = "INSERT INTO sharing_catalogue.configurations (id, configuration, configuration_bin) VALUES (?, NULL, ?) ON CONFLICT (id) DO NOTHING";
+
+	private static final String COUNT_ALL = "SELECT count(*) FROM sharing_catalogue.configurations";
+	private static final String SELECT_ALL_IDS = "SELECT id FROM sharing_catalogue.configurations";
+	private static final String SELECT_BY_IDS = "SELECT id, configuration, configuration_bin FROM sharing_catalogue.configurations WHERE id = ANY(?)";
+
+	// Configurations read per page when streaming all configurations
+	private final int exportFetchSize = exportFetchSize();
+
+	// Lookups by id found in and missing from the shared entity cache
+	private final LongAdder sharedCacheHits = new LongAdder();
+	private final LongAdder sharedCacheMisses = new LongAdder();
+
+	// Frequently read configurations by id, in front of the database, null when disabled
+	private final TinyLfuCache<String, Configuration> hotCache = hotCache();
+	// Whether writes of other instances reach this repository, see ConfigurationChangeListener.
+	// The hot cache and the id filter only learn of those writes that way, so they are bypassed while not.
+	private volatile boolean changesFollowed = true;
+
+	// Bloom filter of all stored ids, so lookups of unknown ids skip the database. Null until first
+	// built, or when disabled. While a new filter is built, ids written meanwhile go to both.
+	// Off by default: with several instances, an id created elsewhere is only added once its change
+	// notification arrives, and looking it up before then is answered as missing.
+	private final boolean idFilterEnabled = Boolean.parseBoolean(env("CONFIGURATION_ID_FILTER_ENABLED", ID_FILTER_ENABLED_DEFAULT));
+	private volatile BloomFilter idFilter;
+	private volatile BloomFilter nextIdFilter;
+	private final LongAdder filteredLookups = new LongAdder();
+
+	// Ids recently looked up and not found, null when disabled
+	private final NegativeCache negativeCache = negativeCache();
+
+	// Recent writes, sending reads that could miss them on a read replica to the primary
+	private final ReadYourWrites readYourWrites = new ReadYourWrites(EntityManagerFactoryProvider.getReadYourWritesWindow());
+
+	// Sequence numbers of the latest writes, by stripe of ids and for all configurations, see getWriteStamp
+	private static final int WRITE_STAMP_STRIPES = 1024;
+	private final AtomicLong writeSequence = new AtomicLong();
+	private final AtomicLongArray writeStamps = new AtomicLongArray(WRITE_STAMP_STRIPES);
+	private volatile long allWriteStamp;
+
+	public ConfigurationRepository(DBService dbService) {
+		this.dbService = dbService;
+	}
+
+	/**
+	 * Returns the configuration with the given id, from the hot configuration cache or else from
+	 * the shared entity cache when they hold it, or else from a read replica unless it was written
+	 * recently. Ids the id filter or the negative cache know to be missing are answered without a query.
+	 */
+	public Configuration getConfigurationById(String id) {
+		if (isKnownMissing(id)) {
+			return null;
+		}
+		long stamp = negativeCache != null ? negativeCache.stamp() : 0;
+		Configuration found;
+		if (hotCache == null || !changesFollowed) {
+			found = loadConfigurationById(id);
+		} else {
+			Configuration cached = hotCache.get(id, this::loadConfigurationById);
+			found = cached != null ? copy(cached) : null;
+		}
+		if (found == null && negativeCache != null) {
+			negativeCache.add(id, stamp);
+		}
+		return found;
+	}
+
+	private Configuration loadConfigurationById(String id) {
+		return readRouted(id, () -> {
+			EntityManager em = dbService.getEntityManager();
+			try {
+				Configurations fromDB = findCached(em, id);
+				return fromDB != null ? MappingToAndFromCommonBean.map(fromDB) : null;
+			} finally {
+				em.close();
+			}
+		});
+	}
+
+	/**
+	 * Returns all configurations, from a read replica unless any configuration was written recently.
+	 */
+	public List<Configuration> getConfigurations() {
+		return readRouted(null, () -> {
+			EntityManager em = dbService.getEntityManager();
+			try {
+				TypedQuery<Configurations> query = em.createNamedQuery("configurations.findAll", Configurations.class);
+				readHints().forEach(query::setHint);
+				List<Configurations> fromDB = query.getResultList();
+				return fromDB != null ? MappingToAndFromCommonBean.map(fromDB) : null;
+			} finally {
+				em.close();
+			}
+		});
+	}
+
+	/**
+	 * Returns up to {@code limit} configurations with an id greater than {@code afterId}, ordered by id,
+	 * from a read replica unless any configuration was written recently.
+	 */
+	public List<Configuration> getConfigurationPage(String afterId, int limit) {
+		return readRouted(null, () -> {
+			EntityManager em = dbService.getEntityManager();
+			try {
+				TypedQuery<Configurations> query = em.createNamedQuery("configurations.findPageAfterId", Configurations.class)
+						.setParameter("ID", afterId)
+						.setMaxResults(limit);
+				readHints().forEach(query::setHint);
+				return MappingToAndFromCommonBean.map(query.getResultList());
+			} finally {
+				em.close();
+			}
+		});
+	}
+
+	/**
+	 * Returns the configurations with the given ids in a single query. Ids without a
+	 * configuration are left out of the result, which is in no particular order.
+	 */
+	public List<Configuration> getConfigurationsByIds(Collection<String> ids) {
+		Objects.requireNonNull(ids, "The passed configuration IDs are null");
+		ids = ids.stream().filter(id -> !isKnownMissing(id)).toList();
+		if (ids.isEmpty()) return new ArrayList<>();
+
+		EntityManager em = dbService.getEntityManager();
+		List<Configuration> found = new ArrayList<>(ids.size());
+		try {
+			em.getTransaction().begin();
+			Connection connection = em.unwrap(Connection.class);
+			try (PreparedStatement statement = connection.prepareStatement(SELECT_BY_IDS)) {
+				statement.setArray(1, connection.createArrayOf("text", ids.toArray()));
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next()) {
+						found.add(toConfiguration(result));
+					}
+				}
+			}
+			em.getTransaction().commit();
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not read configurations", e);
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+
+		return found;
+	}
+
+	/**
+	 * Streams all configurations ordered by id, reading them in pages of CONFIGURATION_EXPORT_FETCH_SIZE
+	 * with {@link #getConfigurationPage(String, int)}. Each page is read in a query of its own, so no
+	 * connection or transaction is held while the stream is consumed, however slowly.
+	 */
+	public Stream<Configuration> streamConfigurations() {
+		Spliterator<Configuration> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private Iterator<Configuration> page = Collections.emptyIterator();
+			private String lastId = "";
+			private boolean lastPage;
+
+			@Override
+			public boolean tryAdvance(Consumer<? super Configuration> action) {
+				if (!page.hasNext()) {
+					if (lastPage) return false;
+					List<Configuration> next = getConfigurationPage(lastId, exportFetchSize);
+					lastPage = next.size() < exportFetchSize;
+					page = next.iterator();
+					if (!page.hasNext()) return false;
+				}
+				Configuration config = page.next();
+				lastId = config.getId();
+				action.accept(config);
+				return true;
+			}
+		};
+		return StreamSupport.stream(rows, false);
+	}
+
+	/**
+	 * Replaces the stored values of several configurations in one transaction. A row is only
+	 * updated if its stored value still equals the expected one, so concurrent writes win.
+	 * Each replacement is written to the column it holds its value for (see {@link Configuration#isBinary()}),
+	 * and the other column is cleared.
+	 *
+	 * @param replacements The new values
+	 * @param expectedById The values the rows are expected to hold, by id
+	 * @return The number of rows updated
+	 */
+	public int updateConfigurationsIfUnchanged(List<Configuration> replacements, Map<String, Configuration> expectedById) {
+		Objects.requireNonNull(replacements, "The passed configurations are null");
+		if (replacements.isEmpty()) return 0;
+
+		EntityManager em = dbService.getEntityManager();
+		int updated = 0;
+		try {
+			em.getTransaction().begin();
+			for (Configuration replacement : replacements) {
+				Configuration expected = expectedById.get(replacement.getId());
+				String queryName = "configurations.update"
+						+ (replacement.isBinary() ? "Bin" : "Text")
+						+ "If" + (expected.isBinary() ? "Bin" : "Text") + "Unchanged";
+				updated += em.createNamedQuery(queryName)
+						.setParameter("NEW", replacement.isBinary() ? replacement.getConfigurationBin() : replacement.getConfiguration())
+						.setParameter("ID", replacement.getId())
+						.setParameter("OLD", expected.isBinary() ? expected.getConfigurationBin() : expected.getConfiguration())
+						.executeUpdate();
+			}
+			em.getTransaction().commit();
+			for (Configuration replacement : replacements) {
+				evict(em, replacement.getId());
+			}
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+
+		return updated;
+	}
+
+	/**
+	 * Returns whether new values are stored in the bytea column (CONFIGURATION_STORAGE_COLUMN=bytea)
+	 * rather than as Base64 text. Rows in either column are always readable.
+	 */
+	public boolean isBinaryStorage() {
+		return binaryStorage;
+	}
+
+	public void saveConfiguration(Configuration environment) {
+		Objects.requireNonNull(environment, "The passed configuration is null");
+
+		Configurations p = new Configurations();
+		if(environment.getId()!=null) p.setId(environment.getId());
+		else p.setId(UUID.randomUUID().toString());
+
+		Objects.requireNonNull(environment.isBinary() ? environment.getConfigurationBin() : environment.getConfiguration(), "Missing configuration");
+
+		markExisting(p.getId());
+		EntityManager em = dbService.getEntityManager();
+		try {
+			em.getTransaction().begin();
+
+			setStoredValue(p, environment);
+			em.persist(p);
+
+			em.getTransaction().commit();
+			evict(em, p.getId());
+			markExisting(p.getId());
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+	}
+
+	public boolean updateConfiguration(Configuration environment) {
+		Objects.requireNonNull(environment, "The passed configuration is null");
+		Objects.requireNonNull(environment.getId(), "Missing configuration ID");
+		Objects.requireNonNull(environment.isBinary() ? environment.getConfigurationBin() : environment.getConfiguration(), "Missing configuration");
+
+		EntityManager em = dbService.getEntityManager();
+		try {
+			em.getTransaction().begin();
+
+			Configurations existing = em.find(Configurations.class, environment.getId());
+
+			if (existing == null) {
+				return false;
+			}
+
+			setStoredValue(existing, environment);
+			em.merge(existing);
+
+			em.getTransaction().commit();
+			evict(em, environment.getId());
+			return true;
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+	}
+
+	/**
+	 * Stores a configuration under its id, replacing any existing one, in a single round-trip
+	 * and without loading the existing row. The value is written to the configured column.
+	 *
+	 * @param environment The configuration, with its id
+	 * @return true if the configuration was created, false if an existing one was replaced
+	 */
+	public boolean upsertConfiguration(Configuration environment) {
+		Objects.requireNonNull(environment, "The passed configuration is null");
+		Objects.requireNonNull(environment.getId(), "Missing configuration ID");
+		Objects.requireNonNull(environment.isBinary() ? environment.getConfigurationBin() : environment.getConfiguration(), "Missing configuration");
+
+		markExisting(environment.getId());
+		EntityManager em = dbService.getEntityManager();
+		boolean created;
+		try {
+			em.getTransaction().begin();
+			Connection connection = em.unwrap(Connection.class);
+			try (PreparedStatement statement = connection.prepareStatement(binaryStorage ? UPSERT_BIN : UPSERT_TEXT)) {
+				statement.setString(1, environment.getId());
+				if (binaryStorage) {
+					statement.setBytes(2, environment.getConfigurationBin());
+				} else {
+					statement.setString(2, environment.getConfiguration());
+				}
+				try (ResultSet result = statement.executeQuery()) {
+					result.next();
+					created = result.getBoolean(1);
+				}
+			}
+			em.getTransaction().commit();
+			evict(em, environment.getId());
+			markExisting(environment.getId());
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not store configuration " + environment.getId(), e);
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+
+		return created;
+	}
+
+	/**
+	 * Inserts several configurations as one JDBC batch in one transaction. Configurations whose id
+	 * already exists are left unchanged. Each value is written to the configured column.
+	 *
+	 * @param configurations The configurations, each with its id
+	 * @return For each configuration, whether it was inserted
+	 * @throws PersistenceException if the batch could not be stored, in which case none of it was
+	 */
+	public boolean[] insertConfigurations(List<Configuration> configurations) {
+		Objects.requireNonNull(configurations, "The passed configurations are null");
+		boolean[] inserted = new boolean[configurations.size()];
+		if (configurations.isEmpty()) return inserted;
+
+		configurations.forEach(configuration -> markExisting(Objects.requireNonNull(configuration.getId(), "Missing configuration ID")));
+		EntityManager em = dbService.getEntityManager();
+		try {
+			em.getTransaction().begin();
+			Connection connection = em.unwrap(Connection.class);
+			try (PreparedStatement statement = connection.prepareStatement(binaryStorage ? INSERT_BIN : INSERT_TEXT)) {
+				for (Configuration configuration : configurations) {
+					statement.setString(1, Objects.requireNonNull(configuration.getId(), "Missing configuration ID"));
+					if (binaryStorage) {
+						statement.setBytes(2, configuration.getConfigurationBin());
+					} else {
+						statement.setString(2, configuration.getConfiguration());
+					}
+					statement.addBatch();
+				}
+				int[] counts = statement.executeBatch();
+				for (int i = 0; i < counts.length; i++) {
+					inserted[i] = counts[i] > 0;
+				}
+			}
+			em.getTransaction().commit();
+			configurations.forEach(configuration -> {
+				recordWrite(configuration.getId());
+				markExisting(configuration.getId());
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not store configurations", e);
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+
+		return inserted;
+	}
+
+	/**
+	 * Deletes a configuration with a single DELETE statement, without loading it first.
+	 *
+	 * @return true if a configuration was deleted, false if there was none with this id
+	 */
+	public boolean deleteConfiguration(String id) {
+		Objects.requireNonNull(id, "The passed configuration ID is null");
+
+		EntityManager em = dbService.getEntityManager();
+		int deleted;
+		try {
+			em.getTransaction().begin();
+			deleted = em.createNamedQuery("configurations.deleteById")
+					.setParameter("ID", id)
+					.executeUpdate();
+			em.getTransaction().commit();
+			evict(em, id);
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+
+		return deleted > 0;
+	}
+
+	/**
+	 * Checks whether a configuration exists by selecting only its id, without loading the stored value.
+	 * Ids the id filter or the negative cache know to be missing are answered without a query.
+	 */
+	public boolean existsConfiguration(String id) {
+		Objects.requireNonNull(id, "The passed configuration ID is null");
+
+		if (isKnownMissing(id)) {
+			return false;
+		}
+		EntityManager em = dbService.getEntityManager();
+		try {
+			return !em.createNamedQuery("configurations.existsById")
+					.setParameter("ID", id)
+					.setMaxResults(1)
+					.getResultList()
+					.isEmpty();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups by id served from the shared entity cache.
+	 */
+	public long getSharedCacheHits() {
+		return sharedCacheHits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups by id that had to query the database.
+	 */
+	public long getSharedCacheMisses() {
+		return sharedCacheMisses.sum();
+	}
+
+	/**
+	 * Returns the hot configuration cache, or null if CONFIGURATION_HOT_CACHE_SIZE is 0.
+	 */
+	public TinyLfuCache<String, Configuration> getHotCache() {
+		return hotCache;
+	}
+
+	/**
+	 * Records whether writes of other instances reach this repository through {@link #evictChanged}.
+	 * While they do not, lookups bypass the hot configuration cache, which is emptied, and the id
+	 * filter and negative cache, as these could hide or outdate configurations written elsewhere.
+	 */
+	public void setChangesFollowed(boolean followed) {
+		if (changesFollowed == followed) return;
+		changesFollowed = followed;
+		if (!followed && hotCache != null) {
+			hotCache.invalidateAll();
+		}
+		log.info("Changes of other instances are {}, the hot cache and unknown id checks are turned {}",
+				followed ? "followed" : "not followed", followed ? "on" : "off");
+	}
+
+	/**
+	 * Drops every cached configuration, after changes made without going through this repository.
+	 */
+	public void evictAll() {
+		recordWrite(null);
+		if (hotCache != null) {
+			hotCache.invalidateAll();
+		}
+		if (negativeCache != null) {
+			negativeCache.invalidateAll();
+		}
+		EntityManagerFactoryProvider.getInstance().getCache().evict(Configurations.class);
+		if (idFilterEnabled) {
+			// The filter cannot tell which ids were added, rely on the database until it is rebuilt
+			idFilter = null;
+			try {
+				rebuildIdFilter();
+			} catch (RuntimeException e) {
+				log.warn("Could not rebuild the configuration id filter, it is rebuilt on schedule", e);
+			}
+		}
+	}
+
+	/**
+	 * Drops a configuration changed by another instance, or outside this repository, from the caches,
+	 * and records that it may exist.
+	 */
+	public void evictChanged(String id) {
+		recordWrite(id);
+		if (hotCache != null) {
+			hotCache.invalidate(id);
+		}
+		EntityManagerFactoryProvider.getInstance().getCache().evict(Configurations.class, id);
+		markExisting(id);
+	}
+
+	/**
+	 * Builds the id filter once, then rebuilds it every CONFIGURATION_ID_FILTER_REBUILD_INTERVAL
+	 * seconds in the background, to shed deleted ids and resize it as the table grows.
+	 * Does nothing if CONFIGURATION_ID_FILTER_ENABLED is false.
+	 */
+	public void startIdFilter() {
+		if (!idFilterEnabled) return;
+		try {
+			rebuildIdFilter();
+		} catch (RuntimeException e) {
+			log.error("Could not build the configuration id filter, lookups query the database until it is built", e);
+		}
+		long interval = Long.parseLong(env("CONFIGURATION_ID_FILTER_REBUILD_INTERVAL", ID_FILTER_REBUILD_INTERVAL_DEFAULT));
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "configuration-id-filter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				rebuildIdFilter();
+			} catch (RuntimeException e) {
+				log.warn("Could not rebuild the configuration id filter, the previous one is kept", e);
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Builds a new id filter from an id-only scan of the table and swaps it in. Ids written during
+	 * the scan are added to the new filter as well, so it never misses an existing id.
+	 */
+	public synchronized void rebuildIdFilter() {
+		if (!idFilterEnabled) return;
+		long start = System.currentTimeMillis();
+		EntityManager em = dbService.getEntityManager();
+		try {
+			em.getTransaction().begin();
+			Connection connection = em.unwrap(Connection.class);
+			long count;
+			try (Statement statement = connection.createStatement();
+				 ResultSet result = statement.executeQuery(COUNT_ALL)) {
+				result.next();
+				count = result.getLong(1);
+			}
+			// Sized with room for the ids created until the next rebuild
+			BloomFilter next = new BloomFilter(Math.max(ID_FILTER_MIN_SIZE, 2 * count),
+					Double.parseDouble(env("CONFIGURATION_ID_FILTER_FPP", ID_FILTER_FPP_DEFAULT)));
+			// Set before the scan starts, so ids committed after its snapshot are added by markExisting
+			nextIdFilter = next;
+			long loaded = 0;
+			try (PreparedStatement statement = connection.prepareStatement(SELECT_ALL_IDS)) {
+				statement.setFetchSize(ID_FILTER_FETCH_SIZE);
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next()) {
+						next.put(result.getString(1));
+						loaded++;
+					}
+				}
+			}
+			em.getTransaction().commit();
+			idFilter = next;
+			log.info("Built the configuration id filter from {} ids in {} ms", loaded, System.currentTimeMillis() - start);
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not load configuration ids", e);
+		} finally {
+			nextIdFilter = null;
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups answered as missing by the id filter, without a query.
+	 */
+	public long getFilteredLookups() {
+		return filteredLookups.sum();
+	}
+
+	/**
+	 * Returns the negative cache of missing ids, or null if CONFIGURATION_NEGATIVE_CACHE_SIZE is 0.
+	 */
+	public NegativeCache getNegativeCache() {
+		return negativeCache;
+	}
+
+	/**
+	 * Returns the compression dictionary with the given id, or null if there is none.
+	 */
+	public byte[] getCompressionDictionary(long id) {
+		EntityManager em = dbService.getEntityManager();
+		try {
+			List<CompressionDictionaries> fromDB = getFromDB(em,
+					CompressionDictionaries.class,
+					"compressionDictionaries.findById",
+					"ID", id);
+			return fromDB.isEmpty() ? null : fromDB.get(0).getDictionary();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Returns the most recently stored compression dictionary, or null if there is none.
+	 */
+	public byte[] getLatestCompressionDictionary() {
+		EntityManager em = dbService.getEntityManager();
+		try {
+			List<?> fromDB = em.createNamedQuery("compressionDictionaries.findLatest")
+					.setMaxResults(1)
+					.getResultList();
+			return fromDB.isEmpty() ? null : ((CompressionDictionaries) fromDB.get(0)).getDictionary();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Stores a compression dictionary under its id. Storing a dictionary again makes it the latest.
+	 */
+	public void saveCompressionDictionary(long id, byte[] dictionary) {
+		Objects.requireNonNull(dictionary, "The passed dictionary is null");
+
+		EntityManager em = dbService.getEntityManager();
+		try {
+			em.getTransaction().begin();
+
+			CompressionDictionaries d = new CompressionDictionaries();
+			d.setId(id);
+			d.setDictionary(dictionary);
+			d.setCreated(new Timestamp(System.currentTimeMillis()));
+			em.merge(d);
+
+			em.getTransaction().commit();
+		} finally {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			em.close();
+		}
+	}
+
+	/**
+	 * Looks an entity up by primary key, which EclipseLink serves from the shared cache
+	 * without a query when it holds the id, and counts the cache hit or miss.
+	 */
+	private Configurations findCached(EntityManager em, String id) {
+		if (em.getEntityManagerFactory().getCache().contains(Configurations.class, id)) {
+			sharedCacheHits.increment();
+		} else {
+			sharedCacheMisses.increment();
+		}
+		return em.find(Configurations.class, id, readHints());
+	}
+
+	/**
+	 * Drops a configuration written in a committed transaction from the caches.
+	 */
+	private void evict(EntityManager em, String id) {
+		recordWrite(id);
+		if (hotCache != null) {
+			hotCache.invalidate(id);
+		}
+		em.getEntityManagerFactory().getCache().evict(Configurations.class, id);
+	}
+
+	/**
+	 * Records a committed write, before the caches are invalidated, so reads of the configuration, and
+	 * listings, that could otherwise reach a replica which has not replayed it yet go to the primary,
+	 * and reads in progress are not shared with callers that saw the write (see {@link #getWriteStamp}).
+	 *
+	 * @param id The id written, or null for writes to any number of configurations
+	 */
+	private void recordWrite(String id) {
+		long stamp = writeSequence.incrementAndGet();
+		if (id == null) {
+			allWriteStamp = stamp;
+		} else {
+			writeStamps.accumulateAndGet(Math.floorMod(id.hashCode(), WRITE_STAMP_STRIPES), stamp, Math::max);
+		}
+		if (EntityManagerFactoryProvider.hasReplicas()) {
+			readYourWrites.recordWrite(id);
+		}
+	}
+
+	/**
+	 * Returns a number that grows with every committed write of the configuration with this id, or of
+	 * all configurations, as recorded before the caches are invalidated. A read that took the stamp
+	 * before loading cannot have missed a write made before another read took a greater stamp. Ids
+	 * share stamps in stripes, so the stamp may also grow with writes of other ids.
+	 */
+	public long getWriteStamp(String id) {
+		return Math.max(allWriteStamp, writeStamps.get(Math.floorMod(id.hashCode(), WRITE_STAMP_STRIPES)));
+	}
+
+	/**
+	 * Runs a read on a read replica, or on the primary when there are no replicas or the read could
+	 * miss a write made less than CONFIGURATION_READ_YOUR_WRITES_WINDOW ms ago: a write of the
+	 * configuration with this id, or for listings (null id) a write of any configuration.
+	 */
+	private <T> T readRouted(String id, Supplier<T> read) {
+		if (!EntityManagerFactoryProvider.hasReplicas() || readYourWrites.mustReadPrimary(id)) {
+			return read.get();
+		}
+		return RoutingDataSource.readFromReplica(read);
+	}
+
+	/**
+	 * Returns the query hints for a read: entities read from a replica, which may lag behind, are
+	 * kept out of the shared cache, which other reads would get them from without a query.
+	 */
+	private static Map<String, Object> readHints() {
+		return RoutingDataSource.isReadingFromReplica() ? REPLICA_READ_HINTS : Map.of();
+	}
+
+	/**
+	 * Returns whether the id filter or the negative cache know that no configuration has this id.
+	 */
+	private boolean isKnownMissing(String id) {
+		if (!changesFollowed) {
+			return false;
+		}
+		BloomFilter filter = idFilter;
+		if (filter != null && !filter.mightContain(id)) {
+			filteredLookups.increment();
+			return true;
+		}
+		return negativeCache != null && negativeCache.contains(id);
+	}
+
+	/**
+	 * Records that a configuration with this id exists in the id filters and drops it from the negative
+	 * cache. Writes call it before writing, so readers do not miss the id between commit and return,
+	 * and again after committing, so a filter being rebuilt meanwhile gets it too.
+	 */
+	private void markExisting(String id) {
+		BloomFilter filter = idFilter;
+		if (filter != null) filter.put(id);
+		BloomFilter next = nextIdFilter;
+		if (next != null) next.put(id);
+		if (negativeCache != null) negativeCache.invalidate(id);
+	}
+
+	/**
+	 * Copies a cached configuration, so callers cannot change the cached instance.
+	 */
+	private static Configuration copy(Configuration configuration) {
+		return configuration.isBinary()
+				? new Configuration(configuration.getId(), configuration.getConfigurationBin())
+				: new Configuration(configuration.getId(), configuration.getConfiguration());
+	}
+
+	/**
+	 * Maps a row of (id, configuration, configuration_bin) to the column holding its value.
+	 */
+	private static Configuration toConfiguration(ResultSet result) throws SQLException {
+		byte[] configurationBin = result.getBytes(3);
+		return configurationBin != null
+				? new Configuration(result.getString(1), configurationBin)
+				: new Configuration(result.getString(1), result.getString(2));
+	}
+
+	/**
+	 * Writes the value to the configured column and clears the other one.
+	 */
+	private void setStoredValue(Configurations entity, Configuration configuration) {
+		if (binaryStorage) {
+			entity.setConfigurationBin(configuration.getConfigurationBin());
+			entity.setConfiguration(null);
+		} else {
+			entity.setConfiguration(configuration.getConfiguration());
+			entity.setConfigurationBin(null);
+		}
+	}
+
+	private static NegativeCache negativeCache() {
+		int size = Integer.parseInt(env("CONFIGURATION_NEGATIVE_CACHE_SIZE", NEGATIVE_CACHE_SIZE_DEFAULT));
+		return size > 0 ? new NegativeCache(size, Long.parseLong(env("CONFIGURATION_NEGATIVE_CACHE_TTL", NEGATIVE_CACHE_TTL_DEFAULT))) : null;
+	}
+
+	private static String env(String name, String defaultValue) {
+		String value = System.getenv(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private static TinyLfuCache<String, Configuration> hotCache() {
+		String size = System.getenv("CONFIGURATION_HOT_CACHE_SIZE");
+		long maxWeight = Long.parseLong(size == null ? HOT_CACHE_SIZE_DEFAULT : size);
+		return maxWeight > 0 ? new TinyLfuCache<>(maxWeight, ConfigurationRepository::weigh) : null;
+	}
+
+	private static long weigh(String id, Configuration configuration) {
+		long value = configuration.isBinary()
+				? configuration.getConfigurationBin().length
+				: 2L * configuration.getConfiguration().length();
+		return 2L * id.length() + value + HOT_CACHE_ENTRY_OVERHEAD;
+	}
+
+	private static int exportFetchSize() {
+		String fetchSize = System.getenv("CONFIGURATION_EXPORT_FETCH_SIZE");
+		return Integer.parseInt(fetchSize == null ? EXPORT_FETCH_SIZE_DEFAULT : fetchSize);
+	}
+
+	private static boolean binaryStorage() {
+		String column = System.getenv("CONFIGURATION_STORAGE_COLUMN");
+		column = column == null ? STORAGE_COLUMN_DEFAULT : column;
+		switch (column.toLowerCase()) {
+			case "text":
+				return false;
+			case "bytea":
+				return true;
+			default:
+				throw new IllegalArgumentException("Unsupported CONFIGURATION_STORAGE_COLUMN: " + column);
+		}
+	}
+}
+
+
+
+
+
+
+
@@ -1,7 +1,10 @@
 package org.epos.dbconnector;
 
 import jakarta.persistence.*;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.config.CacheIsolationType;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Objects;
 
@@ -9,11 +12,23 @@ import java.util.Objects;
 @Table(name = "configurations", schema = "sharing_catalogue")
 @NamedQueries({
         @NamedQuery(name = "configurations.findAll", query = "SELECT c FROM Configurations c"),
-        @NamedQuery(name = "configurations.findById", query = "SELECT c FROM Configurations c where c.id = :ID")
+        @NamedQuery(name = "configurations.findById", query = "SELECT c FROM Configurations c where c.id = :ID"),
+        @NamedQuery(name = "configurations.findPageAfterId", query = "SELECT c FROM Configurations c where c.id > :ID order by c.id"),
+        @NamedQuery(name = "configurations.existsById", query = "SELECT c.id FROM Configurations c where c.id = :ID"),
+        @NamedQuery(name = "configurations.deleteById", query = "DELETE FROM Configurations c where c.id = :ID"),
+        @NamedQuery(name = "configurations.updateTextIfTextUnchanged", query = "UPDATE Configurations c SET c.configuration = :NEW, c.configurationBin = NULL where c.id = :ID and c.configuration = :OLD"),
+        @NamedQuery(name = "configurations.updateBinIfTextUnchanged", query = "UPDATE Configurations c SET c.configurationBin = :NEW, c.configuration = NULL where c.id = :ID and c.configuration = :OLD"),
+        @NamedQuery(name = "configurations.updateTextIfBinUnchanged", query = "UPDATE Configurations c SET c.configuration = :NEW, c.configurationBin = NULL where c.id = :ID and c.configurationBin = :OLD"),
+        @NamedQuery(name = "configurations.updateBinIfBinUnchanged", query = "UPDATE Configurations c SET c.configurationBin = :NEW, c.configuration = NULL where c.id = :ID and c.configurationBin = :OLD")
 })
+@Cacheable
+// Writes evict their own id; the expiry bounds how long other instances' writes can go unseen.
+// Cache type and size are set in persistence.xml.
+@Cache(isolation = CacheIsolationType.SHARED, expiry = 60000)
 public class Configurations {
     private String id;
     private String configuration;
+    private byte[] configurationBin;
 
 	@Id
     @Column(name = "id", nullable = false, length = 1024)
@@ -35,9 +50,22 @@ public class Configurations {
         this.configuration = configuration;
     }
 
+    /**
+     * Binary form of the encrypted value. A row holds either this or the Base64 text in {@link #getConfiguration()}.
+     */
+    @Basic
+    @Column(name = "configuration_bin", columnDefinition = "BYTEA")
+    public byte[] getConfigurationBin() {
+        return configurationBin;
+    }
+
+    public void setConfigurationBin(byte[] configurationBin) {
+        this.configurationBin = configurationBin;
+    }
+
 	@Override
 	public int hashCode() {
-		return Objects.hash(configuration, id);
+		return Objects.hash(configuration, Arrays.hashCode(configurationBin), id);
 	}
 
 	@Override
@@ -49,12 +77,14 @@ public class Configurations {
 		if (getClass() != obj.getClass())
 			return false;
 		Configurations other = (Configurations) obj;
-		return Objects.equals(configuration, other.configuration) && Objects.equals(id, other.id);
+		return Objects.equals(configuration, other.configuration) && Arrays.equals(configurationBin, other.configurationBin)
+				&& Objects.equals(id, other.id);
 	}
 
 	@Override
 	public String toString() {
-		return "Configurations [id=" + id + ", configuration=" + configuration + "]";
+		return "Configurations [id=" + id + ", configuration=" + configuration
+				+ ", configurationBin=" + (configurationBin == null ? null : configurationBin.length + " bytes") + "]";
 	}
 
 
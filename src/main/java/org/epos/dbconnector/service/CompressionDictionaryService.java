@@ -0,0 +1,97 @@
+package org.epos.dbconnector.service;
+
+import org.epos.dbconnector.Configuration;
+import org.epos.dbconnector.ConfigurationMethod;
+import org.epos.dbconnector.util.AESUtil;
+import org.epos.dbconnector.util.Compression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores compression dictionaries in the database and trains new ones from stored configurations.
+ */
+public class CompressionDictionaryService implements Compression.DictionaryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CompressionDictionaryService.class);
+
+    private static final String TRAINING_SAMPLE_SIZE_DEFAULT = "200";
+    private static final int PAGE_SIZE = 100;
+
+    @Override
+    public byte[] find(long id) {
+        return ConfigurationMethod.getCompressionDictionary(id);
+    }
+
+    @Override
+    public byte[] findLatest() {
+        return ConfigurationMethod.getLatestCompressionDictionary();
+    }
+
+    /**
+     * Trains a dictionary from the first stored configurations, stores it and makes it the one
+     * new payloads are compressed with. Existing rows keep their dictionary until they are rewritten.
+     *
+     * @param sampleSize     Configurations to train from, or null for COMPRESSION_TRAINING_SAMPLE_SIZE
+     * @param dictionarySize Maximum dictionary size in bytes, or null for the deflate maximum (32 KB)
+     * @return The compression status, see {@link #getStatus()}
+     */
+    public Map<String, Object> train(Integer sampleSize, Integer dictionarySize) {
+        int samplesWanted = sampleSize != null ? sampleSize : Integer.parseInt(env("COMPRESSION_TRAINING_SAMPLE_SIZE", TRAINING_SAMPLE_SIZE_DEFAULT));
+        int maxSize = dictionarySize != null ? dictionarySize : Compression.MAX_DICTIONARY_SIZE;
+        if (samplesWanted <= 0) {
+            throw new IllegalArgumentException("Sample size must be positive");
+        }
+
+        List<byte[]> samples = new ArrayList<>();
+        String lastId = "";
+        while (samples.size() < samplesWanted) {
+            List<Configuration> page = ConfigurationMethod.getConfigurationPage(lastId, Math.min(PAGE_SIZE, samplesWanted - samples.size()));
+            if (page.isEmpty()) break;
+            for (Configuration configuration : page) {
+                try {
+                    ByteBuffer plainText = configuration.isBinary()
+                            ? AESUtil.decryptToBuffer(configuration.getConfigurationBin())
+                            : AESUtil.decryptToBuffer(configuration.getConfiguration());
+                    samples.add(Arrays.copyOfRange(plainText.array(), plainText.arrayOffset() + plainText.position(),
+                            plainText.arrayOffset() + plainText.limit()));
+                } catch (RuntimeException e) {
+                    log.warn("Skipping configuration '{}' for dictionary training", configuration.getId(), e);
+                }
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
+
+        byte[] dictionary = Compression.train(samples, maxSize);
+        long id = Compression.dictionaryId(dictionary);
+        ConfigurationMethod.saveCompressionDictionary(id, dictionary);
+        Compression.activate(dictionary);
+        log.info("Trained compression dictionary {} ({} bytes) from {} configurations", id, dictionary.length, samples.size());
+
+        Map<String, Object> status = getStatus();
+        status.put("samples", samples.size());
+        status.put("dictionarySize", dictionary.length);
+        return status;
+    }
+
+    /**
+     * Returns whether compression is enabled and which dictionary is active.
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", Compression.isEnabled());
+        status.put("activeDictionaryId", Compression.getActiveDictionaryId());
+        return status;
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
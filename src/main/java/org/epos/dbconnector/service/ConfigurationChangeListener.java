@@ -0,0 +1,209 @@
+package org.epos.dbconnector.service;
+
+import org.epos.dbconnector.ConfigurationRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the local caches of configurations in step with writes made by other instances.
+ *
+ * Triggers on the configurations table (see db/schema-updates.sql) send the ids changed by each
+ * statement on the {@value #CHANNEL} channel when the write commits, one per line, or
+ * {@value #ALL_CHANGED} when a statement changed many. This listener holds a dedicated connection
+ * outside the pool that LISTENs on the channel and evicts the notified ids. Notifications sent
+ * while it is disconnected are lost, so after reconnecting it catches up by dropping every cached
+ * configuration.
+ *
+ * The hot configuration cache has no expiry and the id filter only learns of ids through the
+ * notifications, so both are bypassed while the listener is disconnected or when the triggers are
+ * missing, and other instances' writes would go unnoticed.
+ *
+ * Disabled when CONFIGURATION_CHANGE_LISTENER_ENABLED is false, for deployments running a single instance.
+ */
+public class ConfigurationChangeListener {
+
+    public static final String CHANNEL = "configuration_changes";
+    public static final String ALL_CHANGED = "*";
+
+    private static final Logger log = LoggerFactory.getLogger(ConfigurationChangeListener.class);
+
+    private static final String ENABLED_DEFAULT = "true";
+    // How long a poll waits for notifications before checking the connection, in ms
+    private static final int POLL_TIMEOUT = 10000;
+    private static final long MIN_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 30000;
+
+    private static final String COUNT_TRIGGERS = "SELECT count(*) FROM pg_trigger "
+            + "WHERE tgrelid = 'sharing_catalogue.configurations'::regclass AND NOT tgisinternal AND tgenabled <> 'D' "
+            + "AND tgname IN ('configurations_notify_insert', 'configurations_notify_update', 'configurations_notify_delete')";
+    private static final int TRIGGERS = 3;
+
+    private final ConfigurationRepository repository;
+    private volatile boolean running;
+    private volatile Connection connection;
+    private volatile boolean triggersInstalled;
+
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    public ConfigurationChangeListener(ConfigurationRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Starts listening. The first connection is opened on the calling thread, so writes made by other
+     * instances from then on are seen; if that fails, the listener keeps trying in the background.
+     */
+    public synchronized void start() {
+        String enabled = System.getenv("CONFIGURATION_CHANGE_LISTENER_ENABLED");
+        if (running || !Boolean.parseBoolean(enabled == null ? ENABLED_DEFAULT : enabled)) {
+            return;
+        }
+        running = true;
+        try {
+            connection = listen();
+            checkTriggers(connection);
+        } catch (SQLException e) {
+            repository.setChangesFollowed(false);
+            log.warn("Could not listen for configuration changes, retrying in the background", e);
+        }
+        Thread worker = new Thread(this::run, "configuration-change-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        close(connection);
+    }
+
+    private void run() {
+        long delay = MIN_RECONNECT_DELAY;
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = listen();
+                    reconnects.increment();
+                    // Writes made while disconnected were not notified
+                    repository.evictAll();
+                    checkTriggers(connection);
+                    log.info("Listening for configuration changes again, dropped all cached configurations");
+                }
+                poll(connection);
+                delay = MIN_RECONNECT_DELAY;
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Lost the configuration change listener connection, reconnecting in {} ms", delay, e);
+                repository.setChangesFollowed(false);
+                close(connection);
+                connection = null;
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                delay = Math.min(MAX_RECONNECT_DELAY, delay * 2);
+            }
+        }
+    }
+
+    private static Connection listen() throws SQLException {
+        Connection listening = EntityManagerFactoryProvider.openUnpooledConnection();
+        try (Statement statement = listening.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        } catch (SQLException e) {
+            close(listening);
+            throw e;
+        }
+        return listening;
+    }
+
+    /**
+     * Checks that the triggers sending the notifications are in place, and lets the repository rely on
+     * the notifications only if they are.
+     */
+    private void checkTriggers(Connection listening) throws SQLException {
+        int found;
+        try (Statement statement = listening.createStatement();
+             ResultSet result = statement.executeQuery(COUNT_TRIGGERS)) {
+            result.next();
+            found = result.getInt(1);
+        }
+        triggersInstalled = found == TRIGGERS;
+        if (!triggersInstalled) {
+            log.error("The configuration change triggers are missing, run db/schema-updates.sql. "
+                    + "Writes of other instances are not seen, the hot cache and id filter are bypassed");
+        }
+        repository.setChangesFollowed(triggersInstalled);
+    }
+
+    /**
+     * Waits for notifications and evicts the ids they carry. Checks the connection with a query
+     * when none arrived, as a connection dropped by the network is not otherwise noticed.
+     */
+    private void poll(Connection listening) throws SQLException {
+        PGNotification[] received = listening.unwrap(PGConnection.class).getNotifications(POLL_TIMEOUT);
+        if (received == null || received.length == 0) {
+            try (Statement statement = listening.createStatement()) {
+                statement.execute("SELECT 1");
+            }
+            return;
+        }
+        for (PGNotification notification : received) {
+            notifications.increment();
+            String ids = notification.getParameter();
+            if (ALL_CHANGED.equals(ids)) {
+                repository.evictAll();
+            } else {
+                for (String id : ids.split("\n")) {
+                    repository.evictChanged(id);
+                }
+            }
+        }
+    }
+
+    private static void close(Connection listening) {
+        if (listening == null) return;
+        try {
+            listening.close();
+        } catch (SQLException e) {
+            // Already broken, nothing left to release
+        }
+    }
+
+    /**
+     * Returns the number of change notifications received, including those for this instance's own writes.
+     */
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    /**
+     * Returns the number of times the listener reconnected and dropped all cached configurations.
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * Returns whether the triggers sending change notifications were found when the listener last connected.
+     */
+    public boolean isTriggersInstalled() {
+        return triggersInstalled;
+    }
+}
@@ -0,0 +1,173 @@
+package org.epos.dbconnector.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import org.epos.dbconnector.ConfigurationRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshots and restores the configurations table with PostgreSQL COPY in binary format, streaming
+ * rows straight between the table and an HTTP stream or a local file without mapping them to entities.
+ *
+ * Both directions are disabled unless CONFIGURATION_COPY_ENABLED is true. Local files are only
+ * read and written inside CONFIGURATION_COPY_DIRECTORY.
+ *
+ * Restores copy into a temporary staging table first and then insert into the configurations table
+ * in the same transaction, so a snapshot can be restored into a table that already holds rows and a
+ * failed restore changes nothing.
+ */
+public class ConfigurationCopyService {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfigurationCopyService.class);
+
+    private static final String COPY_ENABLED_DEFAULT = "false";
+
+    private static final String COPY_OUT = "COPY sharing_catalogue.configurations (id, configuration, configuration_bin) TO STDOUT (FORMAT binary)";
+    private static final String CREATE_STAGING = "CREATE TEMP TABLE configurations_import "
+            + "(LIKE sharing_catalogue.configurations INCLUDING DEFAULTS) ON COMMIT DROP";
+    private static final String COPY_IN = "COPY configurations_import (id, configuration, configuration_bin) FROM STDIN (FORMAT binary)";
+    private static final String INSERT_FROM_STAGING = "INSERT INTO sharing_catalogue.configurations (id, configuration, configuration_bin) "
+            + "SELECT id, configuration, configuration_bin FROM configurations_import ON CONFLICT (id) DO ";
+    private static final String KEEP_EXISTING = "NOTHING";
+    private static final String REPLACE_EXISTING = "UPDATE SET configuration = EXCLUDED.configuration, configuration_bin = EXCLUDED.configuration_bin";
+
+    private final DBService dbService;
+    private final ConfigurationRepository repository;
+
+    public ConfigurationCopyService(DBService dbService, ConfigurationRepository repository) {
+        this.dbService = dbService;
+        this.repository = repository;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(env("CONFIGURATION_COPY_ENABLED", COPY_ENABLED_DEFAULT));
+    }
+
+    /**
+     * Writes all configurations to the stream in PostgreSQL binary COPY format.
+     *
+     * @return The number of rows written
+     */
+    public long exportTo(OutputStream out) throws IOException {
+        checkEnabled();
+        EntityManager em = dbService.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            long rows = copyManager(em).copyOut(COPY_OUT, out);
+            em.getTransaction().commit();
+            log.info("Exported {} configurations", rows);
+            return rows;
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not export configurations", e);
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Restores configurations from a stream in PostgreSQL binary COPY format, as written by {@link #exportTo}.
+     *
+     * @param replace Whether rows in the snapshot replace existing rows with the same id, which are kept otherwise
+     * @return The rows read from the snapshot ("copied") and the rows inserted or replaced ("stored")
+     */
+    public Map<String, Object> importFrom(InputStream in, boolean replace) throws IOException {
+        checkEnabled();
+        EntityManager em = dbService.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            Connection connection = em.unwrap(Connection.class);
+            long copied;
+            int stored;
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING);
+                copied = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_IN, in);
+                stored = statement.executeUpdate(INSERT_FROM_STAGING + (replace ? REPLACE_EXISTING : KEEP_EXISTING));
+            }
+            em.getTransaction().commit();
+            // A restore may replace any number of rows, so drop every cached configuration
+            repository.evictAll();
+            log.info("Imported {} configurations, {} stored", copied, stored);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("copied", copied);
+            result.put("stored", stored);
+            return result;
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not import configurations", e);
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Writes all configurations to a file in CONFIGURATION_COPY_DIRECTORY, replacing it if it exists.
+     */
+    public Map<String, Object> exportToFile(String fileName) throws IOException {
+        Path file = resolve(fileName);
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            result.put("copied", exportTo(out));
+        }
+        result.put("file", file.toString());
+        return result;
+    }
+
+    /**
+     * Restores configurations from a file in CONFIGURATION_COPY_DIRECTORY, see {@link #importFrom}.
+     */
+    public Map<String, Object> importFromFile(String fileName, boolean replace) throws IOException {
+        Path file = resolve(fileName);
+        Map<String, Object> result;
+        try (InputStream in = Files.newInputStream(file)) {
+            result = importFrom(in, replace);
+        }
+        result.put("file", file.toString());
+        return result;
+    }
+
+    private static CopyManager copyManager(EntityManager em) throws SQLException {
+        return em.unwrap(Connection.class).unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    private static Path resolve(String fileName) {
+        checkEnabled();
+        String directory = System.getenv("CONFIGURATION_COPY_DIRECTORY");
+        if (directory == null) {
+            throw new IllegalStateException("CONFIGURATION_COPY_DIRECTORY is not set");
+        }
+        Path base = Paths.get(directory).toAbsolutePath().normalize();
+        Path file = base.resolve(fileName).normalize();
+        if (!base.equals(file.getParent())) {
+            throw new IllegalArgumentException("File must be directly inside " + base);
+        }
+        return file;
+    }
+
+    private static void checkEnabled() {
+        if (!isEnabled()) {
+            throw new IllegalStateException("COPY operations are disabled, set CONFIGURATION_COPY_ENABLED=true");
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
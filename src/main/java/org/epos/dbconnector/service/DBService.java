@@ -2,13 +2,135 @@ package org.epos.dbconnector.service;
 
 
 import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out EntityManagers and keeps track of them.
+ *
+ * Inside a scope (see {@link #openScope()}, opened for every HTTP request) all callers on the thread
+ * share one EntityManager: closing it only clears its persistence context, and the scope closes it
+ * for real when it ends, rolling back a transaction that was left open. Outside a scope every call
+ * returns a new EntityManager that the caller must close.
+ *
+ * Opened and closed EntityManagers and transactions left open are counted, so leaks show up
+ * in the metrics before they exhaust the connection pool.
+ */
 public class DBService {
+
+    private static final Logger log = LoggerFactory.getLogger(DBService.class);
+
+    private static final ThreadLocal<Scope> scopes = new ThreadLocal<>();
+
+    private static final LongAdder opened = new LongAdder();
+    private static final LongAdder closed = new LongAdder();
+    private static final LongAdder leakedTransactions = new LongAdder();
+
     public DBService() {
     }
 
     public EntityManager getEntityManager() {
-        return EntityManagerFactoryProvider.getInstance().createEntityManager();
+        Scope scope = scopes.get();
+        return scope != null ? scope.entityManager() : track(createEntityManager(), false);
+    }
+
+    /**
+     * Opens a scope sharing one EntityManager among all callers on the current thread until it is
+     * closed. Scopes do not nest: while one is open, this returns a scope whose close does nothing.
+     */
+    public static Scope openScope() {
+        if (scopes.get() != null) {
+            return new Scope(false);
+        }
+        Scope scope = new Scope(true);
+        scopes.set(scope);
+        return scope;
+    }
+
+    /**
+     * Returns the number of EntityManagers opened and not closed yet.
+     */
+    public static long getOpenEntityManagers() {
+        return opened.sum() - closed.sum();
+    }
+
+    /**
+     * Returns the number of transactions still active when their scope ended, which were rolled back.
+     */
+    public static long getLeakedTransactions() {
+        return leakedTransactions.sum();
+    }
+
+    private static EntityManager createEntityManager() {
+        EntityManager em = EntityManagerFactoryProvider.getInstance().createEntityManager();
+        opened.increment();
+        return em;
+    }
+
+    /**
+     * Wraps an EntityManager to count its closing. A shared one is cleared instead of closed.
+     */
+    private static EntityManager track(EntityManager em, boolean shared) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                if (shared) {
+                    em.clear();
+                } else if (em.isOpen()) {
+                    em.close();
+                    closed.increment();
+                }
+                return null;
+            }
+            try {
+                return method.invoke(em, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (EntityManager) Proxy.newProxyInstance(DBService.class.getClassLoader(), new Class<?>[] { EntityManager.class }, handler);
+    }
+
+    /**
+     * EntityManager scope of one thread, created lazily on first use.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final boolean owner;
+        private EntityManager em;
+        private EntityManager shared;
+
+        private Scope(boolean owner) {
+            this.owner = owner;
+        }
+
+        private EntityManager entityManager() {
+            if (shared == null) {
+                em = createEntityManager();
+                shared = track(em, true);
+            }
+            return shared;
+        }
+
+        @Override
+        public void close() {
+            if (!owner) return;
+            scopes.remove();
+            if (em == null) return;
+            try {
+                if (em.getTransaction().isActive()) {
+                    leakedTransactions.increment();
+                    log.warn("Rolling back a transaction left open at the end of its scope");
+                    em.getTransaction().rollback();
+                }
+            } finally {
+                em.close();
+                closed.increment();
+            }
+        }
     }
 
 }
@@ -2,12 +2,27 @@ package org.epos.dbconnector.service;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.DatabaseRecord;
+import org.eclipse.persistence.sessions.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
-import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class EntityManagerFactoryProvider {
 
@@ -15,12 +30,121 @@ public class EntityManagerFactoryProvider {
     private static final String CONNECTION_POOL_MAX_SIZE_DEFAULT = "10";
     private static final String CONNECTION_MAX_LIFETIME_DEFAULT = "60000";
     private static final String CONNECTION_TEST_IDLE_INTERVAL_TIME_DEFAULT = "30000";
-    private static EntityManagerFactory instance;
+    private static final String SCHEMA_UPDATE_DEFAULT = "false";
+    private static final String CONNECTION_LEAK_DETECTION_THRESHOLD_DEFAULT = "0";
+    private static final String READ_YOUR_WRITES_WINDOW_DEFAULT = "5000";
+    private static final String REPLICA_LAG_CHECK_INTERVAL_DEFAULT = "1000";
+    private static final int CONNECTION_VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // Idempotent changes to the schema the service depends on, also run by hand before deploying
+    private static final String SCHEMA_UPDATES = "/db/schema-updates.sql";
+
+    private static final Logger log = LoggerFactory.getLogger(EntityManagerFactoryProvider.class);
+    private static volatile EntityManagerFactory instance;
+    private static volatile HikariDataSource dataSource;
+    private static volatile boolean warmedUp;
+    private static volatile List<HikariDataSource> replicas = List.of();
+    private static volatile RoutingDataSource routingDataSource;
 
     private EntityManagerFactoryProvider() {
     }
 
-    public static synchronized EntityManagerFactory getInstance() {
+    public static EntityManagerFactory getInstance() {
+        // Only creating the factory needs the lock, every EntityManager lookup goes through here
+        EntityManagerFactory factory = instance;
+        return factory != null ? factory : createInstance();
+    }
+
+    /**
+     * Creates the persistence unit and brings it to steady state before the service takes traffic:
+     * the pool's minimum idle connections are opened and validated, and every named query is
+     * prepared so its SQL is not generated on first use. Safe to call again, later calls return
+     * at once after a successful warm-up.
+     *
+     * @return Whether the persistence unit is ready, false if the database could not be reached
+     */
+    public static boolean initialize() {
+        if (warmedUp) {
+            return true;
+        }
+        synchronized (EntityManagerFactoryProvider.class) {
+            if (warmedUp) {
+                return true;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                EntityManagerFactory factory = getInstance();
+                int connections = warmUpPool(dataSource);
+                for (HikariDataSource replica : replicas) {
+                    try {
+                        connections += warmUpPool(replica);
+                    } catch (SQLException e) {
+                        // Reads fall back to the primary while a replica is unavailable
+                        log.warn("Could not warm up read replica pool {}", replica.getPoolName(), e);
+                    }
+                }
+                int queries = prepareNamedQueries(factory);
+                warmedUp = true;
+                log.info("Persistence unit ready in {} ms: {} connections validated, {} named queries prepared",
+                        System.currentTimeMillis() - start, connections, queries);
+            } catch (RuntimeException | SQLException e) {
+                log.error("Could not initialize the persistence unit", e);
+            }
+            return warmedUp;
+        }
+    }
+
+    /**
+     * Returns whether {@link #initialize()} completed.
+     */
+    public static boolean isInitialized() {
+        return warmedUp;
+    }
+
+    /**
+     * Returns whether read replicas are configured (POSTGRESQL_REPLICA_CONNECTION_STRINGS).
+     */
+    public static boolean hasReplicas() {
+        getInstance();
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Returns the time after a write during which reads that could miss it go to the primary, in ms
+     * (CONFIGURATION_READ_YOUR_WRITES_WINDOW). Replicas lagging further behind are not read from.
+     */
+    public static long getReadYourWritesWindow() {
+        String window = System.getenv("CONFIGURATION_READ_YOUR_WRITES_WINDOW");
+        return Long.parseLong(window == null ? READ_YOUR_WRITES_WINDOW_DEFAULT : window);
+    }
+
+    /**
+     * Returns the DataSource routing reads to replicas, or null when there are no replicas
+     * or before the persistence unit is created.
+     */
+    public static RoutingDataSource getRoutingDataSource() {
+        return routingDataSource;
+    }
+
+    /**
+     * Opens a connection to the service's database outside the pool, for a session held open
+     * indefinitely such as a LISTEN. The caller must close it.
+     */
+    public static Connection openUnpooledConnection() throws SQLException {
+        getInstance();
+        HikariDataSource pool = dataSource;
+        return DriverManager.getConnection(pool.getJdbcUrl(), pool.getUsername(), pool.getPassword());
+    }
+
+    /**
+     * Returns the connection pool statistics, or null before the persistence unit is created.
+     */
+    public static HikariPoolMXBean getPoolMXBean() {
+        HikariDataSource pool = dataSource;
+        return pool != null ? pool.getHikariPoolMXBean() : null;
+    }
+
+    private static synchronized EntityManagerFactory createInstance() {
         if (instance == null) {
 
             String persistenceName = System.getenv("PERSISTENCE_NAME_PROCESSING");
@@ -35,11 +159,21 @@ public class EntityManagerFactoryProvider {
             String keep_alive_time = System.getenv("CONNECTION_TEST_IDLE_INTERVAL_TIME");
             keep_alive_time = keep_alive_time == null ? CONNECTION_TEST_IDLE_INTERVAL_TIME_DEFAULT : keep_alive_time;
 
+            // Connections kept open when idle and opened at startup, all of the pool unless set
+            String pool_min_idle = System.getenv("CONNECTION_POOL_MIN_IDLE");
+            pool_min_idle = pool_min_idle == null ? pool_max_size : pool_min_idle;
+
+            // Connections held longer than this (in ms) are logged with the stack trace that took them, 0 disables it
+            String leak_detection_threshold = System.getenv("CONNECTION_LEAK_DETECTION_THRESHOLD");
+            leak_detection_threshold = leak_detection_threshold == null ? CONNECTION_LEAK_DETECTION_THRESHOLD_DEFAULT : leak_detection_threshold;
+
             HikariConfig hikariConfig = new HikariConfig();
             HashMap<String, Object> properties = new HashMap<>();
             hikariConfig.setMaximumPoolSize(Integer.parseInt(pool_max_size));
+            hikariConfig.setMinimumIdle(Integer.parseInt(pool_min_idle));
             hikariConfig.setMaxLifetime(Long.parseLong(max_connection_lifetime));
             hikariConfig.setKeepaliveTime(Long.parseLong(keep_alive_time));
+            hikariConfig.setLeakDetectionThreshold(Long.parseLong(leak_detection_threshold));
 
             hikariConfig.setDriverClassName("org.postgresql.Driver");
             hikariConfig.setPoolName("cerif");
@@ -67,13 +201,116 @@ public class EntityManagerFactoryProvider {
             }
 
 
-            DataSource hikariDataSource = new HikariDataSource(hikariConfig);
+            HikariDataSource hikariDataSource = new HikariDataSource(hikariConfig);
+            dataSource = hikariDataSource;
+
+            // Comma separated connection strings of read replicas, each getting a pool configured like the primary's
+            String replicaConnectionStrings = System.getenv("POSTGRESQL_REPLICA_CONNECTION_STRINGS");
+            List<HikariDataSource> replicaPools = new ArrayList<>();
+            if (replicaConnectionStrings != null) {
+                for (String replicaConnectionString : replicaConnectionStrings.split(",")) {
+                    if (replicaConnectionString.isBlank()) continue;
+                    HikariConfig replicaConfig = new HikariConfig();
+                    hikariConfig.copyStateTo(replicaConfig);
+                    replicaConfig.setJdbcUrl(replicaConnectionString.trim());
+                    replicaConfig.setPoolName("cerif-replica-" + replicaPools.size());
+                    replicaConfig.setReadOnly(true);
+                    // Start even if the replica is down, reads fall back to the primary
+                    replicaConfig.setInitializationFailTimeout(-1);
+                    replicaPools.add(new HikariDataSource(replicaConfig));
+                }
+            }
+            replicas = List.copyOf(replicaPools);
 
-            properties.put(PersistenceUnitProperties.NON_JTA_DATASOURCE, hikariDataSource);
+            if (replicaPools.isEmpty()) {
+                properties.put(PersistenceUnitProperties.NON_JTA_DATASOURCE, hikariDataSource);
+            } else {
+                String lagCheckInterval = System.getenv("CONFIGURATION_REPLICA_LAG_CHECK_INTERVAL");
+                RoutingDataSource routing = new RoutingDataSource(hikariDataSource, replicaPools, getReadYourWritesWindow());
+                routing.startLagChecks(Long.parseLong(lagCheckInterval == null ? REPLICA_LAG_CHECK_INTERVAL_DEFAULT : lagCheckInterval));
+                routingDataSource = routing;
+                properties.put(PersistenceUnitProperties.NON_JTA_DATASOURCE, routingDataSource);
+                log.info("Routing reads to {} replicas", replicaPools.size());
+            }
+            // Process the entity metadata now rather than when the first EntityManager is created
+            properties.put(PersistenceUnitProperties.DEPLOY_ON_STARTUP, "true");
+
+            String entityCacheSize = System.getenv("CONFIGURATION_ENTITY_CACHE_SIZE");
+            if (entityCacheSize != null) {
+                properties.put(PersistenceUnitProperties.CACHE_SIZE_ + "Configurations", entityCacheSize);
+            }
             instance = Persistence.createEntityManagerFactory(persistenceName, properties);
 
         }
         return instance;
     }
 
+    /**
+     * Opens the pool's minimum idle connections at once, rather than waiting for the pool to fill
+     * in the background, and validates each of them.
+     */
+    private static int warmUpPool(HikariDataSource pool) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < pool.getMinimumIdle(); i++) {
+                Connection connection = pool.getConnection();
+                connections.add(connection);
+                if (!connection.isValid(CONNECTION_VALIDATION_TIMEOUT_SECONDS)) {
+                    throw new SQLException("Connection failed validation during warm-up");
+                }
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        return connections.size();
+    }
+
+    /**
+     * Prepares the SQL of every named query, which EclipseLink otherwise does on first execution.
+     */
+    private static int prepareNamedQueries(EntityManagerFactory factory) {
+        Session session = JpaHelper.getServerSession(factory);
+        int prepared = 0;
+        for (List<DatabaseQuery> queries : session.getQueries().values()) {
+            for (DatabaseQuery query : queries) {
+                try {
+                    query.prepareCall(session, new DatabaseRecord());
+                    prepared++;
+                } catch (RuntimeException e) {
+                    log.warn("Could not prepare named query {}, it will be prepared on first use", query.getName(), e);
+                }
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Applies the schema changes in {@value #SCHEMA_UPDATES} when CONFIGURATION_SCHEMA_UPDATE is true.
+     * Off by default: the script is then run by hand, by a database user with DDL rights.
+     *
+     * @throws IllegalStateException if the changes could not be applied, the service cannot run without them
+     */
+    public static void updateSchema() {
+        String schemaUpdate = System.getenv("CONFIGURATION_SCHEMA_UPDATE");
+        schemaUpdate = schemaUpdate == null ? SCHEMA_UPDATE_DEFAULT : schemaUpdate;
+        if (!Boolean.parseBoolean(schemaUpdate)) {
+            return;
+        }
+        getInstance();
+        try (InputStream in = EntityManagerFactoryProvider.class.getResourceAsStream(SCHEMA_UPDATES);
+             Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + SCHEMA_UPDATES);
+            }
+            // The driver splits the script into its statements
+            statement.execute(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            log.info("Applied {}", SCHEMA_UPDATES);
+        } catch (IOException | SQLException e) {
+            throw new IllegalStateException("Could not update the configurations schema with " + SCHEMA_UPDATES, e);
+        }
+    }
+
 }
@@ -0,0 +1,263 @@
+package org.epos.dbconnector.service;
+
+import org.epos.dbconnector.Configuration;
+import org.epos.dbconnector.ConfigurationMethod;
+import org.epos.dbconnector.util.AESUtil;
+import org.epos.dbconnector.util.Compression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background job re-encrypting stored configurations into the configured storage format and
+ * compression setting, and moving them into the configured storage column (Base64 TEXT or bytea).
+ *
+ * Rows are read in pages ordered by id and rewritten in one transaction per page, only if they
+ * were not changed in the meantime. The job is throttled to a maximum number of rows per second.
+ * Since every format stays readable, the service keeps serving while the job runs, and the job
+ * can be stopped and restarted at any time.
+ *
+ * The job runs on its own single thread, which {@link #shutdown()} stops when the application exits.
+ */
+public class ReEncryptionJob {
+
+    private static final Logger log = LoggerFactory.getLogger(ReEncryptionJob.class);
+
+    private static final String BATCH_SIZE_DEFAULT = "100";
+    private static final String MAX_ROWS_PER_SECOND_DEFAULT = "500";
+    // How long shutdown waits for the current page before interrupting the job, in seconds
+    private static final long SHUTDOWN_TIMEOUT = 30;
+
+    public enum State {
+        IDLE,
+        RUNNING,
+        STOPPING,
+        STOPPED,
+        COMPLETED,
+        FAILED
+    }
+
+    // One thread, and room for one run queued while a stopped run finishes its page
+    private final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), runnable -> new Thread(runnable, "configuration-reencryption"));
+    private final Object throttle = new Object();
+    private volatile State state = State.IDLE;
+    private volatile int batchSize;
+    private volatile int maxRowsPerSecond;
+    private volatile int targetVersion;
+    private volatile boolean targetBinary;
+    private volatile boolean targetCompressed;
+    private volatile String lastId;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Starts the job unless it is already running.
+     *
+     * @param batchSize        Rows per page and transaction, or null for REENCRYPTION_BATCH_SIZE
+     * @param maxRowsPerSecond Throttle, or null for REENCRYPTION_MAX_ROWS_PER_SECOND
+     * @return true if the job was started
+     */
+    public synchronized boolean start(Integer batchSize, Integer maxRowsPerSecond) {
+        if (state == State.RUNNING || state == State.STOPPING) {
+            return false;
+        }
+        this.batchSize = batchSize != null ? batchSize : Integer.parseInt(env("REENCRYPTION_BATCH_SIZE", BATCH_SIZE_DEFAULT));
+        this.maxRowsPerSecond = maxRowsPerSecond != null ? maxRowsPerSecond : Integer.parseInt(env("REENCRYPTION_MAX_ROWS_PER_SECOND", MAX_ROWS_PER_SECOND_DEFAULT));
+        if (this.batchSize <= 0 || this.maxRowsPerSecond <= 0) {
+            throw new IllegalArgumentException("Batch size and rows per second must be positive");
+        }
+        this.targetVersion = AESUtil.getStorageFormatVersion();
+        this.targetBinary = ConfigurationMethod.isBinaryStorage();
+        this.targetCompressed = Compression.isEnabled();
+        this.lastId = "";
+        this.startedAt = Instant.now();
+        this.finishedAt = null;
+        this.error = null;
+        scanned.set(0);
+        migrated.set(0);
+        skipped.set(0);
+        failed.set(0);
+
+        state = State.RUNNING;
+        try {
+            executor.execute(this::run);
+        } catch (RejectedExecutionException e) {
+            state = State.STOPPED;
+            throw new IllegalStateException("The previous run is still finishing or the job was shut down", e);
+        }
+        return true;
+    }
+
+    /**
+     * Asks the job to stop after the current page.
+     *
+     * @return true if the job was running
+     */
+    public synchronized boolean stop() {
+        if (state != State.RUNNING) {
+            return false;
+        }
+        state = State.STOPPING;
+        synchronized (throttle) {
+            throttle.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Stops the job and waits for the current page to be written, interrupting the job if that takes too long.
+     */
+    public void shutdown() {
+        stop();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns a snapshot of the job's progress and rate.
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("targetVersion", targetVersion);
+        status.put("targetColumn", targetBinary ? "bytea" : "text");
+        status.put("targetCompressed", targetCompressed);
+        status.put("batchSize", batchSize);
+        status.put("maxRowsPerSecond", maxRowsPerSecond);
+        status.put("scanned", scanned.get());
+        status.put("migrated", migrated.get());
+        status.put("skipped", skipped.get());
+        status.put("failed", failed.get());
+        status.put("lastId", lastId);
+        status.put("startedAt", Objects.toString(startedAt, null));
+        status.put("finishedAt", Objects.toString(finishedAt, null));
+        status.put("rowsPerSecond", rowsPerSecond());
+        status.put("error", error);
+        return status;
+    }
+
+    private double rowsPerSecond() {
+        Instant start = startedAt;
+        if (start == null) return 0;
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(1, Duration.between(start, end).toMillis());
+        return scanned.get() * 1000.0 / millis;
+    }
+
+    private void run() {
+        log.info("Re-encryption to storage format v{} in the {} column started (batch size {}, max {} rows/s)",
+                targetVersion, targetBinary ? "bytea" : "text", batchSize, maxRowsPerSecond);
+        try {
+            while (state == State.RUNNING) {
+                long pageStart = System.nanoTime();
+
+                List<Configuration> page = ConfigurationMethod.getConfigurationPage(lastId, batchSize);
+                if (page.isEmpty()) {
+                    finish(State.COMPLETED);
+                    return;
+                }
+                migratePage(page);
+                lastId = page.get(page.size() - 1).getId();
+
+                // Throttle: a page of n rows may take no less than n / maxRowsPerSecond seconds
+                long minNanos = page.size() * 1_000_000_000L / maxRowsPerSecond;
+                long sleepMillis = (minNanos - (System.nanoTime() - pageStart)) / 1_000_000;
+                if (sleepMillis > 0) {
+                    synchronized (throttle) {
+                        if (state == State.RUNNING) throttle.wait(sleepMillis);
+                    }
+                }
+            }
+            finish(State.STOPPED);
+        } catch (InterruptedException e) {
+            finish(State.STOPPED);
+        } catch (RuntimeException e) {
+            log.error("Re-encryption failed after id '{}'", lastId, e);
+            error = e.getMessage();
+            finish(State.FAILED);
+        }
+    }
+
+    private void migratePage(List<Configuration> page) {
+        List<Configuration> replacements = new ArrayList<>();
+        Map<String, Configuration> expectedById = new HashMap<>();
+        for (Configuration configuration : page) {
+            scanned.incrementAndGet();
+            if (!configuration.isBinary() && configuration.getConfiguration() == null) continue;
+            int version = configuration.isBinary()
+                    ? AESUtil.getEnvelopeVersion(configuration.getConfigurationBin())
+                    : AESUtil.getEnvelopeVersion(configuration.getConfiguration());
+            boolean compressed = configuration.isBinary()
+                    ? AESUtil.isCompressed(configuration.getConfigurationBin())
+                    : AESUtil.isCompressed(configuration.getConfiguration());
+            boolean reencrypt = version != targetVersion || compressed != targetCompressed;
+            if (!reencrypt && configuration.isBinary() == targetBinary) continue;
+            try {
+                byte[] stored = configuration.getConfigurationBin();
+                byte[] value = stored;
+                if (reencrypt) {
+                    ByteBuffer plainText = AESUtil.decryptToBuffer(stored);
+                    value = AESUtil.encryptDeterministic(plainText.array(), plainText.arrayOffset() + plainText.position(),
+                            plainText.remaining(), targetVersion);
+                }
+                replacements.add(targetBinary
+                        ? new Configuration(configuration.getId(), value)
+                        : new Configuration(configuration.getId(), Base64.getEncoder().encodeToString(value)));
+                expectedById.put(configuration.getId(), configuration);
+            } catch (RuntimeException e) {
+                log.warn("Could not re-encrypt configuration '{}'", configuration.getId(), e);
+                failed.incrementAndGet();
+            }
+        }
+
+        int updated = ConfigurationMethod.updateConfigurationsIfUnchanged(replacements, expectedById);
+        migrated.addAndGet(updated);
+        // Rows changed by a concurrent write are left to that write
+        skipped.addAndGet(replacements.size() - updated);
+    }
+
+    private synchronized void finish(State finalState) {
+        finishedAt = Instant.now();
+        state = finalState;
+        log.info("Re-encryption {}: scanned {}, migrated {}, skipped {}, failed {}",
+                finalState, scanned.get(), migrated.get(), skipped.get(), failed.get());
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,265 @@
+package org.epos.dbconnector.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * DataSource handing out connections to the primary database, or to one of its read replicas for
+ * reads run through {@link #readFromReplica(Supplier)}. Replicas are used in turn, skipping those
+ * that are unavailable or lag too far behind. When no replica can provide a connection, the read
+ * falls back to the primary.
+ *
+ * A replica that fails to provide a connection is skipped for a second, then for twice as long
+ * after each further failure, up to 30 seconds. The replay lag of every replica is checked in the
+ * background (see {@link #startLagChecks(long)}), and replicas lagging more than the maximum lag
+ * are skipped until they caught up.
+ *
+ * The choice is made whenever a connection is taken, so it applies to queries run outside a
+ * transaction: EclipseLink takes a connection for each of those and keeps one for a whole transaction.
+ */
+public class RoutingDataSource implements DataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> replicaReads = new ThreadLocal<>();
+
+    // Replay lag in ms, 0 when the replica replayed all it received. Replay timestamps go stale
+    // while the primary is idle, so they only count while there is something left to replay.
+    private static final String REPLICA_LAG = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+    private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toNanos(30);
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService lagChecks;
+
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * @param maxLagMillis Replay lag above which a replica is skipped, in ms
+     */
+    public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas, long maxLagMillis) {
+        this.primary = primary;
+        List<Replica> wrapped = new ArrayList<>();
+        for (DataSource replica : replicas) {
+            wrapped.add(new Replica(wrapped.size(), replica));
+        }
+        this.replicas = List.copyOf(wrapped);
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * Runs a read with connections taken on the current thread going to a replica.
+     */
+    public static <T> T readFromReplica(Supplier<T> read) {
+        if (Boolean.TRUE.equals(replicaReads.get())) {
+            return read.get();
+        }
+        replicaReads.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            replicaReads.remove();
+        }
+    }
+
+    /**
+     * Returns whether reads on the current thread go to a replica, see {@link #readFromReplica(Supplier)}.
+     */
+    public static boolean isReadingFromReplica() {
+        return Boolean.TRUE.equals(replicaReads.get());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (replicas.isEmpty() || !isReadingFromReplica()) {
+            return primary.getConnection();
+        }
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (!replica.isUsable(System.nanoTime())) {
+                continue;
+            }
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.succeeded();
+                replicaConnections.increment();
+                return connection;
+            } catch (SQLException e) {
+                replica.failed(e);
+            }
+        }
+        fallbacks.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * Checks the replay lag of every replica, then again every {@code intervalMillis} in the background.
+     */
+    public synchronized void startLagChecks(long intervalMillis) {
+        if (lagChecks != null || replicas.isEmpty()) return;
+        checkLag();
+        lagChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecks.scheduleWithFixedDelay(this::checkLag, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Measures the replay lag of every replica that is not being skipped after a failure,
+     * and marks those lagging more than the maximum lag to be skipped.
+     */
+    public void checkLag() {
+        for (Replica replica : replicas) {
+            if (!replica.isAvailable(System.nanoTime())) {
+                continue;
+            }
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(REPLICA_LAG)) {
+                result.next();
+                replica.succeeded();
+                replica.setLag(result.getDouble(1), maxLagMillis);
+            } catch (SQLException | RuntimeException e) {
+                replica.failed(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of replicas reads can currently go to.
+     */
+    public int getUsableReplicas() {
+        long now = System.nanoTime();
+        return (int) replicas.stream().filter(replica -> replica.isUsable(now)).count();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Returns the number of connections handed out to replicas.
+     */
+    public long getReplicaConnections() {
+        return replicaConnections.sum();
+    }
+
+    /**
+     * Returns the number of replica reads that fell back to the primary, as no replica was usable.
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    private static final class Replica {
+        private final int index;
+        private final DataSource dataSource;
+        // After a failure, the replica is skipped until this System.nanoTime
+        private long retryAt;
+        private long retryDelay;
+        private volatile boolean failing;
+        private volatile boolean lagging;
+
+        private Replica(int index, DataSource dataSource) {
+            this.index = index;
+            this.dataSource = dataSource;
+        }
+
+        private boolean isUsable(long now) {
+            return !lagging && isAvailable(now);
+        }
+
+        private boolean isAvailable(long now) {
+            if (!failing) return true;
+            synchronized (this) {
+                return now - retryAt >= 0;
+            }
+        }
+
+        private synchronized void failed(Exception e) {
+            retryDelay = failing ? Math.min(MAX_RETRY_DELAY, retryDelay * 2) : MIN_RETRY_DELAY;
+            retryAt = System.nanoTime() + retryDelay;
+            failing = true;
+            log.warn("Read replica {} failed, skipping it for {} ms", index, TimeUnit.NANOSECONDS.toMillis(retryDelay), e);
+        }
+
+        private void succeeded() {
+            if (failing) {
+                failing = false;
+                log.info("Read replica {} is available again", index);
+            }
+        }
+
+        private void setLag(double lagMillis, long maxLagMillis) {
+            boolean wasLagging = lagging;
+            lagging = lagMillis > maxLagMillis;
+            if (lagging != wasLagging) {
+                log.info("Read replica {} is {} ms behind, {}", index, (long) lagMillis, lagging ? "skipping it" : "using it again");
+            }
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package org.epos.dbconnector.util;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * AES-256-CBC encryption/decryption utility compatible with OpenSSL.
@@ -19,7 +29,16 @@ import java.util.Base64;
  * - PBKDF2 key derivation (modern, more secure)
  * - EVP_BytesToKey MD5-based key derivation (legacy OpenSSL compatibility)
  * 
- * Uses the OpenSSL "Salted__" format for encrypted data.
+ * Uses the OpenSSL "Salted__" format for data exchanged with clients.
+ * Data stored in the database uses a versioned envelope instead, whose 8-byte header
+ * ("EPSC" + version + KDF + cipher + flags) replaces "Salted__" and records how the
+ * payload was produced, so decryption never has to guess the key derivation method:
+ * - version 1: legacy KDF and AES-256-CBC, followed by the OpenSSL salt and ciphertext
+ * - version 2: AES-256-GCM under a per-record subkey of a master key derived once per process,
+ *   followed by the 12-byte nonce and the ciphertext with its tag
+ *
+ * The version written by {@link #encryptDeterministic(String)} is selected with
+ * CONFIGURATION_STORAGE_FORMAT (v1 by default); both versions are always readable.
  */
 public class AESUtil {
 
@@ -28,6 +47,7 @@ public class AESUtil {
     private static final int IV_LENGTH = 16;
     private static final int SALT_LENGTH = 8;
     private static final int PBKDF2_ITERATIONS = 10000;
+    private static final String KEY_CACHE_SIZE_DEFAULT = "256";
 
     // Internal passphrase for encryption - change manually as needed
     private static final String INTERNAL_SALT = "fxUoIlLqLVuN";
@@ -38,6 +58,43 @@ public class AESUtil {
         0x76, (byte)0xBF, 0x04, (byte)0xBD, 0x0F, (byte)0xAF, 0x64, 0x5A 
     };
 
+    // Envelope header: magic + version + KDF + cipher + flags, same length as "Salted__"
+    private static final byte[] ENVELOPE_MAGIC = new byte[] { 'E', 'P', 'S', 'C' };
+    private static final int HEADER_LENGTH = 8;
+    private static final byte ENVELOPE_VERSION_1 = 1;
+    private static final byte KDF_EVP = 1;
+    private static final byte KDF_PBKDF2 = 2;
+    private static final byte CIPHER_AES_256_CBC = 1;
+    private static final byte ENVELOPE_VERSION_2 = 2;
+    private static final byte KDF_MASTER_KEY = 3;
+    private static final byte CIPHER_AES_256_GCM = 2;
+    private static final byte FLAG_COMPRESSED = 0x01;
+    private static final int GCM_NONCE_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int MASTER_KEY_ITERATIONS = 100000;
+    private static final byte[] MASTER_KEY_SALT = "EPOS sharing-service master key v2".getBytes(StandardCharsets.US_ASCII);
+    private static final String STORAGE_FORMAT_DEFAULT = "v1";
+    private static final int KDF_HINTS_MAX_SIZE = 1024;
+
+    // KDF that last decrypted a "Salted__" payload with a given salt, so legacy rows skip the wrong guess.
+    // Rows written by encryptDeterministic before the envelope existed all use FIXED_SALT with EVP.
+    private static final Map<Long, DerivedKeyCache.Kdf> kdfHints = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, DerivedKeyCache.Kdf> eldest) {
+            return size() > KDF_HINTS_MAX_SIZE;
+        }
+    };
+
+    static {
+        recordKdfHint(FIXED_SALT, 0, DerivedKeyCache.Kdf.EVP);
+    }
+
+    // Derived key material per (KDF, passphrase, salt); stored rows all share one entry
+    private static final DerivedKeyCache keyCache = new DerivedKeyCache(keyCacheSize());
+
+    // Envelope version written by encryptDeterministic
+    private static final int storageFormatVersion = storageFormatVersion();
+
     /**
      * Encrypts plain text using AES-256-CBC with the internal salt.
      * Uses PBKDF2 key derivation (modern approach).
@@ -61,31 +118,13 @@ public class AESUtil {
         try {
             // Generate random salt
             byte[] salt = new byte[SALT_LENGTH];
-            SecureRandom secureRandom = new SecureRandom();
-            secureRandom.nextBytes(salt);
+            CryptoContext.secureRandom().nextBytes(salt);
 
-            // Derive key and IV using PBKDF2
+            // Derive key and IV using PBKDF2 (not cached: the salt is never reused)
             byte[][] keyAndIv = deriveKeyAndIvPBKDF2(passphrase, salt);
-            byte[] key = keyAndIv[0];
-            byte[] iv = keyAndIv[1];
-
-            // Initialize cipher
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
-
-            // Encrypt
-            byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
 
-            // Combine: "Salted__" + salt + encrypted data
-            byte[] saltedPrefix = SALTED_PREFIX.getBytes(StandardCharsets.US_ASCII);
-            byte[] result = new byte[saltedPrefix.length + salt.length + encrypted.length];
-            System.arraycopy(saltedPrefix, 0, result, 0, saltedPrefix.length);
-            System.arraycopy(salt, 0, result, saltedPrefix.length, salt.length);
-            System.arraycopy(encrypted, 0, result, saltedPrefix.length + salt.length, encrypted.length);
-
-            return Base64.getEncoder().encodeToString(result);
+            byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+            return Base64.getEncoder().encodeToString(encryptCbc(saltedPrefix(), salt, keyAndIv, plain, 0, plain.length));
 
         } catch (Exception e) {
             throw new RuntimeException("Error encrypting data", e);
@@ -96,12 +135,182 @@ public class AESUtil {
      * Encrypts plain text using AES-256-CBC with the internal passphrase and FIXED salt.
      * This produces deterministic output - the same plaintext always produces the same ciphertext.
      * Use this for database storage to ensure consistency.
+     * The result is a versioned envelope; use {@link #toOpenSslFormat(String)} before handing it to clients.
      *
      * @param plainText The text to encrypt
-     * @return Base64 encoded encrypted string in OpenSSL format
+     * @return Base64 encoded encrypted string in envelope format
      */
     public static String encryptDeterministic(String plainText) {
-        return encryptLegacyWithSalt(plainText, INTERNAL_SALT, FIXED_SALT);
+        return encryptDeterministic(plainText, storageFormatVersion);
+    }
+
+    /**
+     * Encrypts plain text deterministically into the given envelope version.
+     * Version 1 uses the internal passphrase and FIXED salt with AES-256-CBC; version 2 uses
+     * AES-256-GCM with a nonce and subkey derived from the plaintext and the master key.
+     *
+     * @param plainText     The text to encrypt
+     * @param formatVersion The envelope version (1 or 2)
+     * @return Base64 encoded encrypted string in envelope format
+     */
+    public static String encryptDeterministic(String plainText, int formatVersion) {
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        return Base64.getEncoder().encodeToString(encryptDeterministic(plain, 0, plain.length, formatVersion));
+    }
+
+    /**
+     * Encrypts UTF-8 plain text bytes deterministically, like {@link #encryptDeterministic(String)},
+     * without going through an intermediate String.
+     *
+     * @param plainText The UTF-8 bytes to encrypt; position and limit delimit the plaintext
+     * @return Base64 encoded encrypted string in envelope format
+     */
+    public static String encryptDeterministic(ByteBuffer plainText) {
+        return Base64.getEncoder().encodeToString(encryptDeterministicBinary(plainText));
+    }
+
+    /**
+     * Encrypts plain text deterministically into the configured storage format, like
+     * {@link #encryptDeterministic(String)}, but returns the binary envelope for the bytea column.
+     *
+     * @param plainText The text to encrypt
+     * @return The binary envelope (not Base64 encoded)
+     */
+    public static byte[] encryptDeterministicBinary(String plainText) {
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        return encryptDeterministic(plain, 0, plain.length, storageFormatVersion);
+    }
+
+    /**
+     * Encrypts UTF-8 plain text bytes deterministically into the configured storage format.
+     *
+     * @param plainText The UTF-8 bytes to encrypt; position and limit delimit the plaintext
+     * @return The binary envelope (not Base64 encoded)
+     */
+    public static byte[] encryptDeterministicBinary(ByteBuffer plainText) {
+        if (plainText.hasArray()) {
+            return encryptDeterministic(plainText.array(), plainText.arrayOffset() + plainText.position(),
+                    plainText.remaining(), storageFormatVersion);
+        }
+        byte[] plain = new byte[plainText.remaining()];
+        plainText.duplicate().get(plain);
+        return encryptDeterministic(plain, 0, plain.length, storageFormatVersion);
+    }
+
+    /**
+     * Encrypts a range of UTF-8 plain text bytes deterministically into the given envelope version.
+     *
+     * @param plainText     Array holding the plaintext
+     * @param offset        Start of the plaintext
+     * @param length        Length of the plaintext
+     * @param formatVersion The envelope version (1 or 2)
+     * @return The binary envelope (not Base64 encoded)
+     */
+    public static byte[] encryptDeterministic(byte[] plainText, int offset, int length, int formatVersion) {
+        return encryptDeterministic(plainText, offset, length, formatVersion, Compression.isEnabled());
+    }
+
+    /**
+     * Encrypts like {@link #encryptDeterministic(byte[], int, int, int)}, compressing the plaintext first if asked to.
+     */
+    static byte[] encryptDeterministic(byte[] plainText, int offset, int length, int formatVersion, boolean compress) {
+        if (formatVersion != ENVELOPE_VERSION_1 && formatVersion != ENVELOPE_VERSION_2) {
+            throw new IllegalArgumentException("Unsupported envelope version " + formatVersion);
+        }
+        byte flags = 0;
+        if (compress) {
+            plainText = Compression.compress(plainText, offset, length);
+            offset = 0;
+            length = plainText.length;
+            flags = FLAG_COMPRESSED;
+        }
+        switch (formatVersion) {
+            case ENVELOPE_VERSION_1:
+                try {
+                    byte[][] keyAndIv = keyCache.get(DerivedKeyCache.Kdf.EVP, INTERNAL_SALT, FIXED_SALT,
+                            () -> deriveKeyAndIvEVP(INTERNAL_SALT, FIXED_SALT));
+                    return encryptCbc(envelopeHeader(ENVELOPE_VERSION_1, KDF_EVP, CIPHER_AES_256_CBC, flags),
+                            FIXED_SALT, keyAndIv, plainText, offset, length);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error encrypting data (v1)", e);
+                }
+            case ENVELOPE_VERSION_2:
+                return encryptGcm(plainText, offset, length, flags);
+            default:
+                throw new IllegalArgumentException("Unsupported envelope version " + formatVersion);
+        }
+    }
+
+    /**
+     * Encrypts a stream of UTF-8 plain text deterministically into the configured storage format and
+     * writes it Base64 encoded to the given stream, which is closed afterwards.
+     * Version 1 envelopes are encrypted while the input is read. Version 2 needs the whole plaintext
+     * up front to derive its nonce, and so does compression, so then the input is buffered.
+     *
+     * @param plainText  Stream of the UTF-8 plaintext
+     * @param base64Out  Destination of the Base64 encoded envelope
+     */
+    public static void encryptDeterministic(InputStream plainText, OutputStream base64Out) throws IOException {
+        OutputStream encoded = Base64.getEncoder().wrap(base64Out);
+        if (storageFormatVersion != ENVELOPE_VERSION_1 || Compression.isEnabled()) {
+            try (encoded) {
+                byte[] plain = plainText.readAllBytes();
+                encoded.write(encryptDeterministic(plain, 0, plain.length, storageFormatVersion));
+            }
+            return;
+        }
+
+        Cipher cipher;
+        try {
+            byte[][] keyAndIv = keyCache.get(DerivedKeyCache.Kdf.EVP, INTERNAL_SALT, FIXED_SALT,
+                    () -> deriveKeyAndIvEVP(INTERNAL_SALT, FIXED_SALT));
+            // Not pooled, for the same reason as in decryptingStream
+            cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyAndIv[0], "AES"), new IvParameterSpec(keyAndIv[1]));
+        } catch (Exception e) {
+            throw new IOException("Error encrypting data (v1)", e);
+        }
+        encoded.write(envelopeHeader(ENVELOPE_VERSION_1, KDF_EVP, CIPHER_AES_256_CBC, (byte) 0));
+        encoded.write(FIXED_SALT);
+        try (OutputStream out = new CipherOutputStream(encoded, cipher)) {
+            plainText.transferTo(out);
+        }
+    }
+
+    /**
+     * Encrypts into a version 2 envelope. The nonce is a MAC of the plaintext (so the output is
+     * deterministic) and selects the per-record subkey; the header is authenticated as AAD.
+     * For flagged (compressed) payloads the header is part of the MAC too, so a compressed payload
+     * never shares its nonce with an equal uncompressed plaintext.
+     */
+    private static byte[] encryptGcm(byte[] plain, int offset, int length, byte flags) {
+        try {
+            MasterKey masterKey = MasterKey.get();
+            byte[] header = envelopeHeader(ENVELOPE_VERSION_2, KDF_MASTER_KEY, CIPHER_AES_256_GCM, flags);
+
+            Mac mac = CryptoContext.get().hmacSha256();
+            mac.init(masterKey.nonceKey);
+            if (flags != 0) {
+                mac.update(header);
+            }
+            mac.update(plain, offset, length);
+            byte[] nonce = Arrays.copyOf(mac.doFinal(), GCM_NONCE_LENGTH);
+
+            byte[] result = new byte[HEADER_LENGTH + GCM_NONCE_LENGTH + length + GCM_TAG_LENGTH / 8];
+            System.arraycopy(header, 0, result, 0, HEADER_LENGTH);
+            System.arraycopy(nonce, 0, result, HEADER_LENGTH, GCM_NONCE_LENGTH);
+
+            // Not pooled: a GCM cipher may not be re-initialized for encryption with its last key and IV
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, recordSubkey(masterKey, nonce), new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            cipher.updateAAD(result, 0, HEADER_LENGTH);
+            cipher.doFinal(plain, offset, length, result, HEADER_LENGTH + GCM_NONCE_LENGTH);
+
+            return result;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error encrypting data (v2)", e);
+        }
     }
 
     /**
@@ -115,8 +324,7 @@ public class AESUtil {
     public static String encryptLegacy(String plainText, String passphrase) {
         // Generate random salt
         byte[] salt = new byte[SALT_LENGTH];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(salt);
+        CryptoContext.secureRandom().nextBytes(salt);
         return encryptLegacyWithSalt(plainText, passphrase, salt);
     }
 
@@ -130,39 +338,48 @@ public class AESUtil {
      * @return Base64 encoded encrypted string in OpenSSL format
      */
     public static String encryptLegacyWithSalt(String plainText, String passphrase, byte[] salt) {
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        return Base64.getEncoder().encodeToString(encryptLegacyWithSalt(plain, 0, plain.length, passphrase, salt));
+    }
+
+    /**
+     * Encrypts a range of plain text bytes like {@link #encryptLegacyWithSalt(String, String, byte[])}.
+     *
+     * @return The binary OpenSSL payload (not Base64 encoded)
+     */
+    private static byte[] encryptLegacyWithSalt(byte[] plain, int offset, int length, String passphrase, byte[] salt) {
         try {
             if (salt.length != SALT_LENGTH) {
                 throw new IllegalArgumentException("Salt must be " + SALT_LENGTH + " bytes");
             }
 
             // Derive key and IV using EVP_BytesToKey (MD5-based, legacy)
-            byte[][] keyAndIv = deriveKeyAndIvEVP(passphrase, salt);
-            byte[] key = keyAndIv[0];
-            byte[] iv = keyAndIv[1];
-
-            // Initialize cipher
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
-
-            // Encrypt
-            byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+            byte[][] keyAndIv = deriveKeyAndIv(DerivedKeyCache.Kdf.EVP, passphrase, salt);
 
-            // Combine: "Salted__" + salt + encrypted data
-            byte[] saltedPrefix = SALTED_PREFIX.getBytes(StandardCharsets.US_ASCII);
-            byte[] result = new byte[saltedPrefix.length + salt.length + encrypted.length];
-            System.arraycopy(saltedPrefix, 0, result, 0, saltedPrefix.length);
-            System.arraycopy(salt, 0, result, saltedPrefix.length, salt.length);
-            System.arraycopy(encrypted, 0, result, saltedPrefix.length + salt.length, encrypted.length);
-
-            return Base64.getEncoder().encodeToString(result);
+            return encryptCbc(saltedPrefix(), salt, keyAndIv, plain, offset, length);
 
         } catch (Exception e) {
             throw new RuntimeException("Error encrypting data (legacy)", e);
         }
     }
 
+    /**
+     * Encrypts with AES-256-CBC straight into a buffer laid out as: 8-byte header + salt + ciphertext.
+     */
+    private static byte[] encryptCbc(byte[] header, byte[] salt, byte[][] keyAndIv, byte[] plain, int offset, int length) throws Exception {
+        Cipher cipher = CryptoContext.get().aesCbc();
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyAndIv[0], "AES"), new IvParameterSpec(keyAndIv[1]));
+
+        byte[] result = new byte[HEADER_LENGTH + SALT_LENGTH + cipher.getOutputSize(length)];
+        System.arraycopy(header, 0, result, 0, HEADER_LENGTH);
+        System.arraycopy(salt, 0, result, HEADER_LENGTH, SALT_LENGTH);
+        int written = cipher.doFinal(plain, offset, length, result, HEADER_LENGTH + SALT_LENGTH);
+
+        return written == result.length - HEADER_LENGTH - SALT_LENGTH
+                ? result
+                : Arrays.copyOf(result, HEADER_LENGTH + SALT_LENGTH + written);
+    }
+
     /**
      * Extracts the salt from an OpenSSL-formatted encrypted string.
      *
@@ -181,8 +398,8 @@ public class AESUtil {
     }
 
     /**
-     * Decrypts an OpenSSL-formatted AES-256-CBC encrypted string using the internal salt.
-     * Automatically tries PBKDF2 first, then falls back to legacy EVP_BytesToKey.
+     * Decrypts an envelope or OpenSSL-formatted AES-256-CBC encrypted string using the internal salt.
+     * See {@link #decrypt(String, String)} for how the key derivation method is chosen.
      *
      * @param encryptedText Base64 encoded encrypted string
      * @return Decrypted plain text
@@ -192,25 +409,230 @@ public class AESUtil {
     }
 
     /**
-     * Decrypts an OpenSSL-formatted AES-256-CBC encrypted string.
-     * Automatically tries PBKDF2 first, then falls back to legacy EVP_BytesToKey.
+     * Decrypts an envelope or OpenSSL-formatted AES-256-CBC encrypted string.
+     * Envelopes are decrypted with the KDF recorded in their header. For "Salted__" payloads the
+     * KDF that last worked for the same salt is tried first; without such a hint PBKDF2 is tried
+     * first, then legacy EVP_BytesToKey.
      *
      * @param encryptedText Base64 encoded encrypted string
      * @param passphrase    The passphrase used for encryption
      * @return Decrypted plain text
      */
     public static String decrypt(String encryptedText, String passphrase) {
-        // Try PBKDF2 first (modern)
+        ByteBuffer decrypted = decryptToBuffer(encryptedText, passphrase);
+        return new String(decrypted.array(), decrypted.arrayOffset() + decrypted.position(), decrypted.remaining(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypts like {@link #decrypt(String)}, but returns the UTF-8 plaintext bytes without building a String.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @return Heap buffer whose position and limit delimit the plaintext
+     */
+    public static ByteBuffer decryptToBuffer(String encryptedText) {
+        return decryptToBuffer(encryptedText, INTERNAL_SALT);
+    }
+
+    /**
+     * Decrypts like {@link #decrypt(String, String)}, but returns the UTF-8 plaintext bytes without building a String.
+     * The Base64 text is decoded once and the plaintext is written over the decoded buffer.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @param passphrase    The passphrase used for encryption
+     * @return Heap buffer whose position and limit delimit the plaintext
+     */
+    public static ByteBuffer decryptToBuffer(String encryptedText, String passphrase) {
+        byte[] decoded;
         try {
-            return decryptWithMethod(encryptedText, passphrase, false);
-        } catch (Exception e) {
-            // Fall back to legacy EVP_BytesToKey
+            decoded = Base64.getDecoder().decode(encryptedText);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Error decrypting data: invalid Base64", e);
+        }
+        return decryptInPlace(decoded, 0, decoded.length, passphrase);
+    }
+
+    /**
+     * Decrypts a binary (not Base64 encoded) stored value with the internal passphrase, leaving it unmodified.
+     *
+     * @param encrypted The binary envelope or "Salted__" payload, e.g. as read from the bytea column
+     * @return Heap buffer whose position and limit delimit the plaintext
+     */
+    public static ByteBuffer decryptToBuffer(byte[] encrypted) {
+        byte[] out = new byte[maxDecryptedLength(encrypted.length)];
+        if (isEnvelope(encrypted, 0, encrypted.length)) {
+            return decryptEnvelopeTo(encrypted, 0, encrypted.length, INTERNAL_SALT, out, 0);
+        }
+        return ByteBuffer.wrap(out, 0, decryptSaltedAutoDetect(encrypted, 0, encrypted.length, INTERNAL_SALT, out, 0));
+    }
+
+    /**
+     * Decrypts a binary (already Base64-decoded) envelope or "Salted__" payload.
+     * Envelopes are decrypted in place: the plaintext overwrites the start of the given range
+     * (compressed envelopes are then decompressed into a new array).
+     * "Salted__" payloads may need a second attempt with the other KDF, so they are decrypted into a new array.
+     *
+     * @param data       Array holding the encrypted payload
+     * @param offset     Start of the payload
+     * @param length     Length of the payload
+     * @param passphrase The passphrase used for encryption
+     * @return Heap buffer whose position and limit delimit the plaintext
+     */
+    public static ByteBuffer decryptInPlace(byte[] data, int offset, int length, String passphrase) {
+        if (isEnvelope(data, offset, length)) {
+            return decryptEnvelopeTo(data, offset, length, passphrase, data, offset);
+        }
+        byte[] out = new byte[Math.max(0, length - HEADER_LENGTH - SALT_LENGTH)];
+        return ByteBuffer.wrap(out, 0, decryptSaltedAutoDetect(data, offset, length, passphrase, out, 0));
+    }
+
+    /**
+     * Decrypts a binary envelope or "Salted__" payload held in a buffer, see {@link #decryptInPlace(byte[], int, int, String)}.
+     *
+     * @param encrypted  Buffer whose position and limit delimit the encrypted payload; it is not modified if it is read-only or direct
+     * @param passphrase The passphrase used for encryption
+     * @return Heap buffer whose position and limit delimit the plaintext
+     */
+    public static ByteBuffer decryptInPlace(ByteBuffer encrypted, String passphrase) {
+        if (encrypted.hasArray()) {
+            return decryptInPlace(encrypted.array(), encrypted.arrayOffset() + encrypted.position(), encrypted.remaining(), passphrase);
+        }
+        byte[] data = new byte[encrypted.remaining()];
+        encrypted.duplicate().get(data);
+        return decryptInPlace(data, 0, data.length, passphrase);
+    }
+
+    /**
+     * Decrypts a binary envelope or "Salted__" payload into a caller-supplied array.
+     *
+     * @param data       Array holding the encrypted payload
+     * @param offset     Start of the payload
+     * @param length     Length of the payload
+     * @param passphrase The passphrase used for encryption
+     * @param out        Destination array, with at least {@link #maxDecryptedLength(int)} bytes free after outOffset;
+     *                   compressed envelopes may need more, otherwise an IllegalArgumentException is thrown
+     * @param outOffset  Where to write the plaintext
+     * @return The number of plaintext bytes written
+     */
+    public static int decrypt(byte[] data, int offset, int length, String passphrase, byte[] out, int outOffset) {
+        if (out.length - outOffset < maxDecryptedLength(length)) {
+            throw new IllegalArgumentException("Output buffer too small");
+        }
+        if (isEnvelope(data, offset, length)) {
+            ByteBuffer plain = decryptEnvelopeTo(data, offset, length, passphrase, out, outOffset);
+            if (plain.array() != out) {
+                if (plain.remaining() > out.length - outOffset) {
+                    throw new IllegalArgumentException("Output buffer too small for the decompressed payload");
+                }
+                int plainLength = plain.remaining();
+                plain.get(out, outOffset, plainLength);
+                return plainLength;
+            }
+            return plain.remaining();
+        }
+        return decryptSaltedAutoDetect(data, offset, length, passphrase, out, outOffset);
+    }
+
+    /**
+     * Decrypts a Base64 encoded envelope or "Salted__" payload and writes the UTF-8 plaintext to a stream.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @param out           Destination of the plaintext
+     */
+    public static void decrypt(String encryptedText, OutputStream out) throws IOException {
+        ByteBuffer decrypted = decryptToBuffer(encryptedText);
+        out.write(decrypted.array(), decrypted.arrayOffset() + decrypted.position(), decrypted.remaining());
+    }
+
+    /**
+     * Returns an upper bound of the plaintext length of an uncompressed binary payload of the given length.
+     *
+     * @param encryptedLength Length of the binary (not Base64) payload
+     * @return The maximum plaintext length
+     */
+    public static int maxDecryptedLength(int encryptedLength) {
+        return Math.max(0, encryptedLength - HEADER_LENGTH - SALT_LENGTH);
+    }
+
+    /**
+     * Returns a stream decrypting a stored value incrementally, see {@link #decryptingStream(InputStream, String)}.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @return Stream of the UTF-8 plaintext
+     */
+    public static InputStream decryptingStream(String encryptedText) throws IOException {
+        return decryptingStream(asciiStream(encryptedText), INTERNAL_SALT);
+    }
+
+    /**
+     * Returns a stream that decodes Base64 ciphertext and decrypts it while it is read, so only a
+     * buffer's worth of ciphertext and plaintext is held in memory.
+     * Version 1 envelopes (decompressed on the fly if compressed) and "Salted__" payloads with a known
+     * KDF for their salt are streamed.
+     * Version 2 envelopes are buffered, as AES-GCM may only release plaintext once the tag is verified,
+     * and so are "Salted__" payloads whose KDF has to be found by trial.
+     * Decryption errors surface as IOException from the returned stream.
+     *
+     * @param base64Ciphertext Stream of the Base64 encoded envelope or "Salted__" payload
+     * @param passphrase       The passphrase used for encryption
+     * @return Stream of the UTF-8 plaintext
+     */
+    public static InputStream decryptingStream(InputStream base64Ciphertext, String passphrase) throws IOException {
+        return decryptingDecodedStream(Base64.getDecoder().wrap(base64Ciphertext), passphrase);
+    }
+
+    /**
+     * Returns a stream decrypting a binary (not Base64 encoded) stored value while it is read,
+     * see {@link #decryptingStream(InputStream, String)}. The array is not modified.
+     *
+     * @param encrypted The binary envelope or "Salted__" payload, e.g. as read from the bytea column
+     * @return Stream of the UTF-8 plaintext
+     */
+    public static InputStream decryptingStream(byte[] encrypted) throws IOException {
+        return decryptingDecodedStream(new ByteArrayInputStream(encrypted), INTERNAL_SALT);
+    }
+
+    private static InputStream decryptingDecodedStream(InputStream decoded, String passphrase) throws IOException {
+        byte[] head = decoded.readNBytes(HEADER_LENGTH + SALT_LENGTH);
+
+        DerivedKeyCache.Kdf kdf = null;
+        boolean compressed = false;
+        if (head.length == HEADER_LENGTH + SALT_LENGTH) {
+            if (isEnvelope(head, 0, head.length)) {
+                compressed = head[7] == FLAG_COMPRESSED;
+                if (head[4] == ENVELOPE_VERSION_1 && head[6] == CIPHER_AES_256_CBC && (head[7] & ~FLAG_COMPRESSED) == 0) {
+                    kdf = head[5] == KDF_EVP ? DerivedKeyCache.Kdf.EVP : head[5] == KDF_PBKDF2 ? DerivedKeyCache.Kdf.PBKDF2 : null;
+                }
+            } else if (Arrays.equals(saltedPrefix(), 0, HEADER_LENGTH, head, 0, HEADER_LENGTH)) {
+                synchronized (kdfHints) {
+                    kdf = kdfHints.get(saltKey(head, HEADER_LENGTH));
+                }
+            }
+        }
+
+        if (kdf == null) {
+            byte[] rest = decoded.readAllBytes();
+            byte[] data = Arrays.copyOf(head, head.length + rest.length);
+            System.arraycopy(rest, 0, data, head.length, rest.length);
             try {
-                return decryptWithMethod(encryptedText, passphrase, true);
-            } catch (Exception e2) {
-                throw new RuntimeException("Error decrypting data (tried both PBKDF2 and legacy EVP)", e2);
+                ByteBuffer plain = decryptInPlace(data, 0, data.length, passphrase);
+                return new ByteArrayInputStream(plain.array(), plain.arrayOffset() + plain.position(), plain.remaining());
+            } catch (RuntimeException e) {
+                throw new IOException("Error decrypting data", e);
             }
         }
+
+        try {
+            byte[] salt = Arrays.copyOfRange(head, HEADER_LENGTH, HEADER_LENGTH + SALT_LENGTH);
+            byte[][] keyAndIv = deriveKeyAndIv(kdf, passphrase, salt);
+
+            // Not pooled: the cipher lives as long as the stream, which may outlive the calling thread's use
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyAndIv[0], "AES"), new IvParameterSpec(keyAndIv[1]));
+            InputStream plain = new CipherInputStream(decoded, cipher);
+            return compressed ? Compression.inflatingStream(plain) : plain;
+        } catch (Exception e) {
+            throw new IOException("Error decrypting data", e);
+        }
     }
 
     /**
@@ -236,49 +658,298 @@ public class AESUtil {
         return decryptWithMethod(encryptedText, passphrase, true);
     }
 
+    /**
+     * Converts a stored value to the OpenSSL "Salted__" format expected by clients.
+     * Values already in OpenSSL format are returned unchanged.
+     *
+     * @param encryptedText Base64 encoded envelope or OpenSSL encrypted string
+     * @return Base64 encoded encrypted string in OpenSSL format
+     */
+    public static String toOpenSslFormat(String encryptedText) {
+        if (!isEnvelope(encryptedText)) {
+            return encryptedText;
+        }
+        return toOpenSslFormatInPlace(Base64.getDecoder().decode(encryptedText));
+    }
+
+    /**
+     * Converts a binary stored value, e.g. as read from the bytea column, to the Base64 encoded
+     * OpenSSL "Salted__" format expected by clients. The array is not modified.
+     *
+     * @param encrypted Binary envelope or OpenSSL payload
+     * @return Base64 encoded encrypted string in OpenSSL format
+     */
+    public static String toOpenSslFormat(byte[] encrypted) {
+        if (!isEnvelope(encrypted, 0, encrypted.length)) {
+            return Base64.getEncoder().encodeToString(encrypted);
+        }
+        return toOpenSslFormatInPlace(encrypted.clone());
+    }
+
+    private static String toOpenSslFormatInPlace(byte[] decoded) {
+        if (decoded[4] == ENVELOPE_VERSION_2 || decoded[7] != 0) {
+            // Clients only understand uncompressed OpenSSL CBC, so other rows are re-encrypted on the way out
+            ByteBuffer plain = decryptEnvelopeTo(decoded, 0, decoded.length, INTERNAL_SALT, decoded, 0);
+            return Base64.getEncoder().encodeToString(encryptLegacyWithSalt(plain.array(), plain.arrayOffset() + plain.position(),
+                    plain.remaining(), INTERNAL_SALT, FIXED_SALT));
+        }
+        if (decoded[4] != ENVELOPE_VERSION_1 || (decoded[5] != KDF_EVP && decoded[5] != KDF_PBKDF2)
+                || decoded[6] != CIPHER_AES_256_CBC) {
+            throw new IllegalArgumentException("Unsupported envelope: version " + decoded[4]
+                    + ", KDF " + decoded[5] + ", cipher " + decoded[6]);
+        }
+        // Version 1 envelopes carry the same salt and ciphertext as OpenSSL, only the header differs
+        System.arraycopy(saltedPrefix(), 0, decoded, 0, HEADER_LENGTH);
+        return Base64.getEncoder().encodeToString(decoded);
+    }
+
     /**
      * Internal method to decrypt with specified key derivation method.
      */
     private static String decryptWithMethod(String encryptedText, String passphrase, boolean useLegacy) {
         try {
-            // Decode Base64
             byte[] decoded = Base64.getDecoder().decode(encryptedText);
+            byte[] out = new byte[maxDecryptedLength(decoded.length)];
+            int plainLength = decryptSalted(decoded, 0, decoded.length, passphrase,
+                    useLegacy ? DerivedKeyCache.Kdf.EVP : DerivedKeyCache.Kdf.PBKDF2, out, 0);
+            return new String(out, 0, plainLength, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Error decrypting data" + (useLegacy ? " (legacy)" : " (PBKDF2)"), e);
+        }
+    }
 
-            // Check for "Salted__" prefix
-            byte[] saltedPrefix = SALTED_PREFIX.getBytes(StandardCharsets.US_ASCII);
-            byte[] prefixFromData = Arrays.copyOfRange(decoded, 0, saltedPrefix.length);
+    /**
+     * Decrypts a binary envelope using the KDF and cipher recorded in its header, without decompressing it.
+     * Version 2 envelopes are keyed by the master key, so the passphrase is not used for them.
+     * The output may overlap the input (JCA ciphers are copy-safe).
+     */
+    private static ByteBuffer decryptEnvelopeTo(byte[] data, int offset, int length, String passphrase, byte[] out, int outOffset) {
+        // Read the flags first: decryption may overwrite the header
+        boolean compressed = (data[offset + 7] & FLAG_COMPRESSED) != 0;
+        int plainLength = decryptEnvelope(data, offset, length, passphrase, out, outOffset);
+        if (!compressed) {
+            return ByteBuffer.wrap(out, outOffset, plainLength);
+        }
+        try {
+            return Compression.decompress(out, outOffset, plainLength);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Error decrypting data: invalid compressed payload", e);
+        }
+    }
+
+    private static int decryptEnvelope(byte[] data, int offset, int length, String passphrase, byte[] out, int outOffset) {
+        if ((data[offset + 7] & ~FLAG_COMPRESSED) != 0) {
+            throw new RuntimeException("Error decrypting data: unsupported envelope flags " + data[offset + 7]);
+        }
+        byte version = data[offset + 4];
+        if (version == ENVELOPE_VERSION_2) {
+            return decryptGcm(data, offset, length, out, outOffset);
+        }
+        if (version != ENVELOPE_VERSION_1) {
+            throw new RuntimeException("Error decrypting data: unsupported envelope version " + version);
+        }
+        if (data[offset + 6] != CIPHER_AES_256_CBC) {
+            throw new RuntimeException("Error decrypting data: unsupported envelope cipher " + data[offset + 6]);
+        }
+        DerivedKeyCache.Kdf kdf;
+        switch (data[offset + 5]) {
+            case KDF_EVP:
+                kdf = DerivedKeyCache.Kdf.EVP;
+                break;
+            case KDF_PBKDF2:
+                kdf = DerivedKeyCache.Kdf.PBKDF2;
+                break;
+            default:
+                throw new RuntimeException("Error decrypting data: unsupported envelope KDF " + data[offset + 5]);
+        }
+        try {
+            return decryptCbc(data, offset, length, passphrase, kdf, out, outOffset);
+        } catch (Exception e) {
+            throw new RuntimeException("Error decrypting data (envelope)", e);
+        }
+    }
+
+    /**
+     * Decrypts a binary version 2 envelope: a single AES-GCM pass under the record's subkey.
+     */
+    private static int decryptGcm(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        if (data[offset + 5] != KDF_MASTER_KEY || data[offset + 6] != CIPHER_AES_256_GCM) {
+            throw new RuntimeException("Error decrypting data: unsupported v2 envelope KDF " + data[offset + 5] + ", cipher " + data[offset + 6]);
+        }
+        if (length < HEADER_LENGTH + GCM_NONCE_LENGTH + GCM_TAG_LENGTH / 8) {
+            throw new RuntimeException("Error decrypting data: v2 envelope too short");
+        }
+        try {
+            MasterKey masterKey = MasterKey.get();
+            int nonceOffset = offset + HEADER_LENGTH;
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, data, nonceOffset, GCM_NONCE_LENGTH);
 
-            if (!Arrays.equals(saltedPrefix, prefixFromData)) {
-                throw new IllegalArgumentException("Invalid encrypted data format: missing 'Salted__' prefix");
+            Cipher cipher = CryptoContext.get().aesGcmDecrypt();
+            cipher.init(Cipher.DECRYPT_MODE, recordSubkey(masterKey, data, nonceOffset), parameterSpec);
+            cipher.updateAAD(data, offset, HEADER_LENGTH);
+            int ciphertextOffset = nonceOffset + GCM_NONCE_LENGTH;
+            return cipher.doFinal(data, ciphertextOffset, offset + length - ciphertextOffset, out, outOffset);
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error decrypting data (v2)", e);
+        }
+    }
+
+    /**
+     * Derives the AES-256 subkey of a single record from the master key and the record's nonce.
+     */
+    private static SecretKeySpec recordSubkey(MasterKey masterKey, byte[] nonce) throws Exception {
+        return recordSubkey(masterKey, nonce, 0);
+    }
+
+    private static SecretKeySpec recordSubkey(MasterKey masterKey, byte[] data, int nonceOffset) throws Exception {
+        Mac mac = CryptoContext.get().hmacSha256();
+        mac.init(masterKey.encryptionKey);
+        mac.update(data, nonceOffset, GCM_NONCE_LENGTH);
+        return new SecretKeySpec(mac.doFinal(), "AES");
+    }
+
+    /**
+     * Decrypts a binary "Salted__" payload, trying the hinted KDF first and then the other one.
+     * The output must not overlap the input, since a failed attempt may already have written to it.
+     */
+    private static int decryptSaltedAutoDetect(byte[] data, int offset, int length, String passphrase, byte[] out, int outOffset) {
+        DerivedKeyCache.Kdf first = kdfHint(data, offset, length);
+        DerivedKeyCache.Kdf second = first == DerivedKeyCache.Kdf.EVP ? DerivedKeyCache.Kdf.PBKDF2 : DerivedKeyCache.Kdf.EVP;
+        try {
+            return decryptSalted(data, offset, length, passphrase, first, out, outOffset);
+        } catch (Exception e) {
+            // Fall back to the other key derivation method
+            try {
+                return decryptSalted(data, offset, length, passphrase, second, out, outOffset);
+            } catch (Exception e2) {
+                throw new RuntimeException("Error decrypting data (tried both PBKDF2 and legacy EVP)", e2);
             }
+        }
+    }
+
+    /**
+     * Decrypts a binary "Salted__" payload and records the KDF as hint for its salt on success.
+     */
+    private static int decryptSalted(byte[] data, int offset, int length, String passphrase, DerivedKeyCache.Kdf kdf,
+                                     byte[] out, int outOffset) throws Exception {
+        // Check for "Salted__" prefix
+        byte[] saltedPrefix = saltedPrefix();
+        if (length < HEADER_LENGTH
+                || !Arrays.equals(saltedPrefix, 0, HEADER_LENGTH, data, offset, offset + HEADER_LENGTH)) {
+            throw new IllegalArgumentException("Invalid encrypted data format: missing 'Salted__' prefix");
+        }
 
-            // Extract salt (8 bytes after "Salted__")
-            byte[] salt = Arrays.copyOfRange(decoded, saltedPrefix.length, saltedPrefix.length + SALT_LENGTH);
+        int plainLength = decryptCbc(data, offset, length, passphrase, kdf, out, outOffset);
+        recordKdfHint(data, offset + HEADER_LENGTH, kdf);
+        return plainLength;
+    }
 
-            // Extract encrypted data
-            byte[] encrypted = Arrays.copyOfRange(decoded, saltedPrefix.length + SALT_LENGTH, decoded.length);
+    /**
+     * Decrypts the salt and AES-256-CBC ciphertext following an 8-byte header.
+     */
+    private static int decryptCbc(byte[] data, int offset, int length, String passphrase, DerivedKeyCache.Kdf kdf,
+                                  byte[] out, int outOffset) throws Exception {
+        if (length < HEADER_LENGTH + SALT_LENGTH) {
+            throw new IllegalArgumentException("Invalid encrypted data: too short");
+        }
 
-            // Derive key and IV
-            byte[][] keyAndIv = useLegacy 
-                    ? deriveKeyAndIvEVP(passphrase, salt) 
-                    : deriveKeyAndIvPBKDF2(passphrase, salt);
-            byte[] key = keyAndIv[0];
-            byte[] iv = keyAndIv[1];
+        // Extract salt (8 bytes after the header)
+        byte[] salt = Arrays.copyOfRange(data, offset + HEADER_LENGTH, offset + HEADER_LENGTH + SALT_LENGTH);
 
-            // Initialize cipher
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
+        // Derive key and IV (cached for the fixed salt)
+        byte[][] keyAndIv = deriveKeyAndIv(kdf, passphrase, salt);
 
-            // Decrypt
-            byte[] decrypted = cipher.doFinal(encrypted);
+        // Initialize cipher
+        Cipher cipher = CryptoContext.get().aesCbc();
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyAndIv[0], "AES"), new IvParameterSpec(keyAndIv[1]));
 
-            return new String(decrypted, StandardCharsets.UTF_8);
+        // Decrypt the ciphertext range directly, without copying it out first
+        int ciphertextOffset = offset + HEADER_LENGTH + SALT_LENGTH;
+        return cipher.doFinal(data, ciphertextOffset, length - HEADER_LENGTH - SALT_LENGTH, out, outOffset);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Error decrypting data" + (useLegacy ? " (legacy)" : " (PBKDF2)"), e);
+    /**
+     * Streams the characters of Base64 text as bytes, without copying the text.
+     */
+    private static InputStream asciiStream(String text) {
+        return new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                return position < text.length() ? text.charAt(position++) & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= text.length()) {
+                    return -1;
+                }
+                int n = Math.min(len, text.length() - position);
+                for (int i = 0; i < n; i++) {
+                    b[off + i] = (byte) text.charAt(position++);
+                }
+                return n;
+            }
+        };
+    }
+
+    private static byte[] saltedPrefix() {
+        return SALTED_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] envelopeHeader(byte version, byte kdf, byte cipher, byte flags) {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(ENVELOPE_MAGIC, 0, header, 0, ENVELOPE_MAGIC.length);
+        header[4] = version;
+        header[5] = kdf;
+        header[6] = cipher;
+        header[7] = flags;
+        return header;
+    }
+
+    private static boolean isEnvelope(byte[] data, int offset, int length) {
+        return length >= HEADER_LENGTH
+                && Arrays.equals(ENVELOPE_MAGIC, 0, ENVELOPE_MAGIC.length, data, offset, offset + ENVELOPE_MAGIC.length);
+    }
+
+    private static DerivedKeyCache.Kdf kdfHint(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH + SALT_LENGTH) {
+            return DerivedKeyCache.Kdf.PBKDF2;
+        }
+        DerivedKeyCache.Kdf hint;
+        synchronized (kdfHints) {
+            hint = kdfHints.get(saltKey(data, offset + HEADER_LENGTH));
         }
+        return hint != null ? hint : DerivedKeyCache.Kdf.PBKDF2;
+    }
+
+    private static void recordKdfHint(byte[] data, int saltOffset, DerivedKeyCache.Kdf kdf) {
+        synchronized (kdfHints) {
+            kdfHints.put(saltKey(data, saltOffset), kdf);
+        }
+    }
+
+    private static Long saltKey(byte[] data, int saltOffset) {
+        return ByteBuffer.wrap(data, saltOffset, SALT_LENGTH).getLong();
+    }
+
+    /**
+     * Derives the key and IV for a salt, through the key cache for the fixed salt all stored rows share.
+     * Other salts are random per value and rarely seen twice, so their keys are derived directly
+     * rather than filling the cache with entries that are never hit.
+     */
+    private static byte[][] deriveKeyAndIv(DerivedKeyCache.Kdf kdf, String passphrase, byte[] salt) throws Exception {
+        if (!Arrays.equals(salt, FIXED_SALT)) {
+            return kdf == DerivedKeyCache.Kdf.EVP ? deriveKeyAndIvEVP(passphrase, salt) : deriveKeyAndIvPBKDF2(passphrase, salt);
+        }
+        return kdf == DerivedKeyCache.Kdf.EVP
+                ? keyCache.get(kdf, passphrase, salt, () -> deriveKeyAndIvEVP(passphrase, salt))
+                : keyCache.get(kdf, passphrase, salt, () -> deriveKeyAndIvPBKDF2(passphrase, salt));
     }
 
     /**
@@ -290,7 +961,7 @@ public class AESUtil {
      * @return Array containing [key, iv]
      */
     private static byte[][] deriveKeyAndIvPBKDF2(String passphrase, byte[] salt) throws Exception {
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        SecretKeyFactory factory = CryptoContext.get().pbkdf2();
         KeySpec spec = new PBEKeySpec(passphrase.toCharArray(), salt, PBKDF2_ITERATIONS, (KEY_LENGTH + IV_LENGTH * 8));
         SecretKey tmp = factory.generateSecret(spec);
         byte[] keyAndIv = tmp.getEncoded();
@@ -311,7 +982,7 @@ public class AESUtil {
      * @return Array containing [key, iv]
      */
     private static byte[][] deriveKeyAndIvEVP(String passphrase, byte[] salt) throws Exception {
-        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        MessageDigest md5 = CryptoContext.get().md5();
         byte[] passBytes = passphrase.getBytes(StandardCharsets.UTF_8);
         
         int keyLength = KEY_LENGTH / 8;  // 32 bytes
@@ -341,7 +1012,7 @@ public class AESUtil {
     }
 
     /**
-     * Checks if a string appears to be encrypted (starts with OpenSSL Salted prefix in Base64).
+     * Checks if a string appears to be encrypted (starts with OpenSSL Salted prefix or envelope header in Base64).
      *
      * @param text The text to check
      * @return true if the text appears to be encrypted
@@ -351,7 +1022,111 @@ public class AESUtil {
             return false;
         }
         // "Salted__" in Base64 starts with "U2FsdGVkX1"
-        return text.startsWith("U2FsdGVkX1");
+        return text.startsWith("U2FsdGVkX1") || isEnvelope(text);
+    }
+
+    /**
+     * Checks if a string is a Base64 encoded envelope (as produced by {@link #encryptDeterministic(String)}).
+     *
+     * @param text The text to check
+     * @return true if the text starts with an envelope header
+     */
+    public static boolean isEnvelope(String text) {
+        if (text == null || text.length() < 12) {
+            return false;
+        }
+        try {
+            // The first 12 Base64 characters decode to 9 bytes, which covers the header
+            return isEnvelope(Base64.getDecoder().decode(text.substring(0, 12)), 0, 9);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the envelope version of a stored value, or 0 for an OpenSSL "Salted__" payload.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @return The envelope version
+     */
+    public static int getEnvelopeVersion(String encryptedText) {
+        if (!isEnvelope(encryptedText)) {
+            return 0;
+        }
+        return Base64.getDecoder().decode(encryptedText.substring(0, 12))[4];
+    }
+
+    /**
+     * Returns the envelope version of a binary stored value, or 0 for an OpenSSL "Salted__" payload.
+     *
+     * @param encrypted Binary envelope or OpenSSL payload
+     * @return The envelope version
+     */
+    public static int getEnvelopeVersion(byte[] encrypted) {
+        return isEnvelope(encrypted, 0, encrypted.length) ? encrypted[4] : 0;
+    }
+
+    /**
+     * Returns whether a binary stored value is a compressed envelope.
+     *
+     * @param encrypted Binary envelope or OpenSSL payload
+     * @return true if the payload was compressed before encryption
+     */
+    public static boolean isCompressed(byte[] encrypted) {
+        return isEnvelope(encrypted, 0, encrypted.length) && (encrypted[7] & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Returns whether a Base64 encoded stored value is a compressed envelope.
+     *
+     * @param encryptedText Base64 encoded encrypted string
+     * @return true if the payload was compressed before encryption
+     */
+    public static boolean isCompressed(String encryptedText) {
+        return isEnvelope(encryptedText) && (Base64.getDecoder().decode(encryptedText.substring(0, 12))[7] & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Returns the envelope version new rows are written with.
+     *
+     * @return The configured storage format version
+     */
+    public static int getStorageFormatVersion() {
+        return storageFormatVersion;
+    }
+
+    /**
+     * Derives the master key up front, so the first request does not pay for it.
+     */
+    public static void initialize() {
+        MasterKey.get();
+    }
+
+    /**
+     * Returns the derived key cache, e.g. to expose its hit/miss counters.
+     *
+     * @return The shared derived key cache
+     */
+    public static DerivedKeyCache getDerivedKeyCache() {
+        return keyCache;
+    }
+
+    private static int storageFormatVersion() {
+        String format = System.getenv("CONFIGURATION_STORAGE_FORMAT");
+        format = format == null ? STORAGE_FORMAT_DEFAULT : format;
+        switch (format.toLowerCase()) {
+            case "v1":
+                return ENVELOPE_VERSION_1;
+            case "v2":
+                return ENVELOPE_VERSION_2;
+            default:
+                throw new IllegalArgumentException("Unsupported CONFIGURATION_STORAGE_FORMAT: " + format);
+        }
+    }
+
+    private static int keyCacheSize() {
+        String size = System.getenv("AES_KEY_CACHE_SIZE");
+        return Integer.parseInt(size == null ? KEY_CACHE_SIZE_DEFAULT : size);
     }
 
     /**
@@ -362,4 +1137,38 @@ public class AESUtil {
     public static String getInternalSalt() {
         return INTERNAL_SALT;
     }
+
+    /**
+     * Master key material for version 2 envelopes, derived once per process with PBKDF2 from
+     * CONFIGURATION_MASTER_KEY (falling back to the internal passphrase). All replicas must share it.
+     */
+    private static final class MasterKey {
+        private final SecretKeySpec encryptionKey;
+        private final SecretKeySpec nonceKey;
+
+        private MasterKey(byte[] keyMaterial) {
+            this.encryptionKey = new SecretKeySpec(keyMaterial, 0, 32, "HmacSHA256");
+            this.nonceKey = new SecretKeySpec(keyMaterial, 32, 32, "HmacSHA256");
+        }
+
+        private static MasterKey get() {
+            return Holder.INSTANCE;
+        }
+
+        private static final class Holder {
+            private static final MasterKey INSTANCE = derive();
+        }
+
+        private static MasterKey derive() {
+            String passphrase = System.getenv("CONFIGURATION_MASTER_KEY");
+            passphrase = passphrase == null ? INTERNAL_SALT : passphrase;
+            try {
+                SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+                KeySpec spec = new PBEKeySpec(passphrase.toCharArray(), MASTER_KEY_SALT, MASTER_KEY_ITERATIONS, 512);
+                return new MasterKey(factory.generateSecret(spec).getEncoded());
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not derive master key", e);
+            }
+        }
+    }
 }
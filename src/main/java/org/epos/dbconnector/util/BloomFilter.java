@@ -0,0 +1,93 @@
+package org.epos.dbconnector.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Bloom filter of strings. Ids can be added concurrently with lookups; a lookup never
+ * misses an id whose addition completed before it started, and wrongly reports an absent id as
+ * present with about the false positive probability the filter was sized for.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashFunctions;
+
+    /**
+     * @param expectedInsertions        Number of ids the filter is sized for
+     * @param falsePositiveProbability  Probability of reporting an absent id as present at that size
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("Expected insertions must be positive");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+        }
+        long size = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (size + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = 64L * words;
+        this.hashFunctions = (int) Math.max(1, Math.min(16, Math.round((double) bitSize / expectedInsertions * Math.log(2))));
+    }
+
+    public void put(String id) {
+        long h1 = hash(id);
+        long h2 = mix(h1 + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = index(h1, h2, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the id was certainly never added, true if it may have been.
+     */
+    public boolean mightContain(String id) {
+        long h1 = hash(id);
+        long h2 = mix(h1 + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = index(h1, h2, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the filter in bits.
+     */
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    private long index(long h1, long h2, int i) {
+        // Derives the i-th hash from two, as Kirsch and Mitzenmacher describe
+        return Long.remainderUnsigned(h1 + i * h2, bitSize);
+    }
+
+    private static long hash(String id) {
+        // FNV-1a over the UTF-16 code units, then a 64-bit finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,45 @@
+package org.epos.dbconnector.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits the items of an iterator into chunks, so only one chunk is held in memory at a time.
+ */
+public final class Chunks {
+
+    private Chunks() {
+    }
+
+    /**
+     * Passes the items to the consumer in chunks of up to {@code size} items, in order. If reading an
+     * item fails, the items read before it are passed on first, then the failure is rethrown, so no
+     * item that was read is lost. Failures of the consumer are rethrown as they are.
+     *
+     * @param items    The items, which may fail to read
+     * @param size     The maximum number of items in a chunk
+     * @param consumer Receives each chunk; the list is reused for the next chunk, so it must not be kept
+     */
+    public static <T> void forEach(Iterator<T> items, int size, Consumer<List<T>> consumer) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        List<T> chunk = new ArrayList<>(size);
+        while (true) {
+            try {
+                if (!items.hasNext()) break;
+                chunk.add(items.next());
+            } catch (RuntimeException e) {
+                if (!chunk.isEmpty()) consumer.accept(chunk);
+                throw e;
+            }
+            if (chunk.size() == size) {
+                consumer.accept(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) consumer.accept(chunk);
+    }
+}
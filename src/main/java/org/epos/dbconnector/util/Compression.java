@@ -0,0 +1,353 @@
+package org.epos.dbconnector.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Optional deflate stage applied to configurations before they are encrypted.
+ *
+ * Encrypted payloads cannot be compressed by the database, so configurations are compressed
+ * here instead, in zlib format with a preset dictionary trained from stored configurations.
+ * The zlib header carries the Adler-32 id of the dictionary, so rows written with an older
+ * dictionary can still be read. A compressed payload starts with the uncompressed length
+ * (4 bytes, big endian), which bounds and sizes the output of decompression.
+ */
+public final class Compression {
+
+    /**
+     * Persistent storage of the dictionaries, keyed by their Adler-32 id.
+     */
+    public interface DictionaryStore {
+
+        /**
+         * @return The dictionary with the given id, or null if there is none
+         */
+        byte[] find(long id);
+
+        /**
+         * @return The most recently trained dictionary, or null if there is none
+         */
+        byte[] findLatest();
+    }
+
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final String COMPRESSION_DEFAULT = "none";
+    private static final String MAX_DECOMPRESSED_SIZE_DEFAULT = "67108864";
+    private static final int LENGTH_PREFIX = 4;
+    private static final int MAX_FRAGMENT_LENGTH = 256;
+
+    private static final boolean enabled = compressionEnabled();
+    private static final int maxDecompressedSize = maxDecompressedSize();
+
+    private static final Map<Long, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private static volatile DictionaryStore store;
+    private static volatile byte[] activeDictionary;
+    private static volatile boolean activeLoaded;
+
+    // Deflater and Inflater hold native zlib state that is expensive to set up, so each thread reuses its own
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private Compression() {
+    }
+
+    /**
+     * Returns whether new payloads are compressed (CONFIGURATION_COMPRESSION=deflate).
+     * Compressed payloads are always readable.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets where dictionaries are loaded from. The active dictionary is reloaded on next use.
+     */
+    public static void setDictionaryStore(DictionaryStore dictionaryStore) {
+        store = dictionaryStore;
+        activeLoaded = false;
+    }
+
+    /**
+     * Makes the given dictionary the one new payloads are compressed with.
+     *
+     * @param dictionary The dictionary, at most {@link #MAX_DICTIONARY_SIZE} bytes, or empty for none
+     * @return The dictionary's id
+     */
+    public static long activate(byte[] dictionary) {
+        long id = dictionaryId(dictionary);
+        dictionaries.put(id, dictionary);
+        // An empty dictionary (nothing in common between the samples) means compressing without one
+        activeDictionary = dictionary.length > 0 ? dictionary : null;
+        activeLoaded = true;
+        return id;
+    }
+
+    /**
+     * Returns the id of the dictionary new payloads are compressed with, or null if there is none.
+     */
+    public static Long getActiveDictionaryId() {
+        byte[] dictionary = activeDictionary();
+        return dictionary == null ? null : dictionaryId(dictionary);
+    }
+
+    /**
+     * Returns the Adler-32 id zlib records for a dictionary.
+     */
+    public static long dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return adler.getValue();
+    }
+
+    /**
+     * Compresses a range of bytes with the active dictionary.
+     *
+     * @return The length-prefixed zlib payload
+     */
+    public static byte[] compress(byte[] data, int offset, int length) {
+        byte[] dictionary = activeDictionary();
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        // zlib's worst case expansion is a few bytes per 16 KB block plus header and trailer
+        byte[] out = new byte[LENGTH_PREFIX + length + (length >> 12) + (length >> 14) + 64];
+        ByteBuffer.wrap(out).putInt(length);
+        int written = LENGTH_PREFIX;
+        while (!deflater.finished()) {
+            if (written == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            written += deflater.deflate(out, written, out.length - written);
+        }
+        return Arrays.copyOf(out, written);
+    }
+
+    /**
+     * Decompresses a length-prefixed zlib payload.
+     *
+     * @return Heap buffer whose position and limit delimit the decompressed bytes
+     */
+    public static ByteBuffer decompress(byte[] data, int offset, int length) {
+        int originalLength = originalLength(data, offset, length);
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset + LENGTH_PREFIX, length - LENGTH_PREFIX);
+
+        // One spare byte detects payloads longer than declared
+        byte[] out = new byte[originalLength + 1];
+        int written = 0;
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(out, written, out.length - written);
+                written += inflated;
+                if (inflated == 0 && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary(inflater.getAdler() & 0xffffffffL));
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalArgumentException("Invalid compressed data: truncated");
+                    } else if (written == out.length) {
+                        break;
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed data", e);
+        }
+        if (written != originalLength) {
+            throw new IllegalArgumentException("Invalid compressed data: length mismatch");
+        }
+        return ByteBuffer.wrap(out, 0, originalLength);
+    }
+
+    /**
+     * Returns a stream decompressing a length-prefixed zlib payload while it is read. Reading fails
+     * as soon as the output exceeds the declared length, itself bounded by CONFIGURATION_MAX_DECOMPRESSED_SIZE,
+     * or ends short of it.
+     */
+    public static InputStream inflatingStream(InputStream compressed) throws IOException {
+        byte[] prefix = compressed.readNBytes(LENGTH_PREFIX + 2);
+        if (prefix.length < LENGTH_PREFIX + 2) {
+            throw new ZipException("Invalid compressed data: too short");
+        }
+        int originalLength = originalLength(prefix, 0, prefix.length);
+
+        Inflater inflater = new Inflater();
+        if ((prefix[LENGTH_PREFIX + 1] & 0x20) == 0) {
+            inflater.setInput(prefix, LENGTH_PREFIX, 2);
+        } else {
+            // FDICT: the header is followed by the dictionary id, after which zlib asks for the dictionary
+            byte[] header = Arrays.copyOfRange(prefix, LENGTH_PREFIX, LENGTH_PREFIX + 6);
+            if (compressed.readNBytes(header, 2, 4) != 4) {
+                inflater.end();
+                throw new ZipException("Invalid compressed data: too short");
+            }
+            inflater.setInput(header);
+            try {
+                if (inflater.inflate(new byte[1]) != 0 || !inflater.needsDictionary()) {
+                    throw new ZipException("Invalid compressed data: unexpected zlib header");
+                }
+                inflater.setDictionary(dictionary(inflater.getAdler() & 0xffffffffL));
+            } catch (DataFormatException | ZipException | RuntimeException e) {
+                inflater.end();
+                throw e instanceof ZipException ? (ZipException) e : new ZipException("Invalid compressed data: " + e.getMessage());
+            }
+        }
+
+        return new InflaterInputStream(compressed, inflater) {
+            private long remaining = originalLength;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                // Asks for one byte more than declared at most, to detect payloads longer than their prefix
+                int read = super.read(b, off, (int) Math.min(len, remaining + 1));
+                if (read < 0 ? remaining != 0 : (remaining -= read) < 0) {
+                    throw new ZipException("Invalid compressed data: length mismatch");
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // The inflater was supplied by us, so InflaterInputStream does not end it
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Trains a dictionary from sample payloads.
+     *
+     * JSON fragments between double quotes (keys, values and escape sequences around them) are
+     * counted across the samples and scored by the bytes a back-reference would save. The best
+     * fragments fill the dictionary, the most valuable last, since deflate encodes nearer
+     * references more cheaply.
+     *
+     * @param samples The sample payloads, e.g. decrypted configurations
+     * @param maxSize The maximum dictionary size, at most {@link #MAX_DICTIONARY_SIZE}
+     * @return The dictionary, empty if the samples have nothing in common
+     */
+    public static byte[] train(List<byte[]> samples, int maxSize) {
+        if (maxSize <= 0 || maxSize > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_DICTIONARY_SIZE);
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            int start = -1;
+            for (int i = 0; i < sample.length; i++) {
+                if (sample[i] != '"') continue;
+                if (start >= 0 && i - start + 1 <= MAX_FRAGMENT_LENGTH && i - start > 1) {
+                    // ISO-8859-1 maps bytes to chars one to one, so the fragment's bytes are restored exactly
+                    counts.merge(new String(sample, start, i - start + 1, StandardCharsets.ISO_8859_1), 1, Integer::sum);
+                }
+                start = i;
+            }
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) candidates.add(entry);
+        }
+        candidates.sort((a, b) -> {
+            long scoreA = (long) (a.getValue() - 1) * a.getKey().length();
+            long scoreB = (long) (b.getValue() - 1) * b.getKey().length();
+            return scoreA != scoreB ? Long.compare(scoreB, scoreA) : a.getKey().compareTo(b.getKey());
+        });
+
+        List<String> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            if (size + candidate.getKey().length() > maxSize) continue;
+            selected.add(candidate.getKey());
+            size += candidate.getKey().length();
+        }
+
+        StringBuilder dictionary = new StringBuilder(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.append(selected.get(i));
+        }
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static int originalLength(byte[] data, int offset, int length) {
+        if (length < LENGTH_PREFIX) {
+            throw new IllegalArgumentException("Invalid compressed data: too short");
+        }
+        int originalLength = ByteBuffer.wrap(data, offset, LENGTH_PREFIX).getInt();
+        if (originalLength < 0 || originalLength > maxDecompressedSize) {
+            throw new IllegalArgumentException("Invalid compressed data: unsupported length " + originalLength);
+        }
+        return originalLength;
+    }
+
+    private static byte[] dictionary(long id) {
+        byte[] dictionary = dictionaries.get(id);
+        if (dictionary == null && store != null) {
+            dictionary = store.find(id);
+            if (dictionary != null) {
+                dictionaries.put(id, dictionary);
+            }
+        }
+        if (dictionary == null) {
+            throw new IllegalStateException("Unknown compression dictionary " + id);
+        }
+        return dictionary;
+    }
+
+    private static byte[] activeDictionary() {
+        if (!activeLoaded) {
+            synchronized (Compression.class) {
+                if (!activeLoaded) {
+                    DictionaryStore dictionaryStore = store;
+                    byte[] latest = dictionaryStore != null ? dictionaryStore.findLatest() : null;
+                    if (latest != null) {
+                        dictionaries.put(dictionaryId(latest), latest);
+                    }
+                    activeDictionary = latest != null && latest.length > 0 ? latest : null;
+                    activeLoaded = true;
+                }
+            }
+        }
+        return activeDictionary;
+    }
+
+    private static boolean compressionEnabled() {
+        String compression = System.getenv("CONFIGURATION_COMPRESSION");
+        compression = compression == null ? COMPRESSION_DEFAULT : compression;
+        switch (compression.toLowerCase()) {
+            case "none":
+                return false;
+            case "deflate":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unsupported CONFIGURATION_COMPRESSION: " + compression);
+        }
+    }
+
+    private static int maxDecompressedSize() {
+        String size = System.getenv("CONFIGURATION_MAX_DECOMPRESSED_SIZE");
+        return Integer.parseInt(size == null ? MAX_DECOMPRESSED_SIZE_DEFAULT : size);
+    }
+}
@@ -0,0 +1,93 @@
+package org.epos.dbconnector.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Thread-confined JCA instances for AESUtil.
+ *
+ * Provider lookup in the getInstance factories is comparatively expensive, and none of these
+ * objects is thread-safe, so each thread keeps its own set. Every user (re)initializes or resets
+ * the instance before use. The SecureRandom is thread-safe and shared, so it is seeded only once.
+ *
+ * AES-GCM encryption is deliberately not pooled: the JDK refuses to re-initialize a GCM cipher for
+ * encryption with the key and IV it last used, which deterministic encryption does on purpose.
+ */
+final class CryptoContext {
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private static final ThreadLocal<CryptoContext> contexts = ThreadLocal.withInitial(CryptoContext::create);
+
+    private final Cipher aesCbc;
+    private final Cipher aesGcmDecrypt;
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private final SecretKeyFactory pbkdf2;
+    private final Mac hmacSha256;
+
+    private CryptoContext(Cipher aesCbc, Cipher aesGcmDecrypt, MessageDigest md5, MessageDigest sha256,
+                          SecretKeyFactory pbkdf2, Mac hmacSha256) {
+        this.aesCbc = aesCbc;
+        this.aesGcmDecrypt = aesGcmDecrypt;
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.pbkdf2 = pbkdf2;
+        this.hmacSha256 = hmacSha256;
+    }
+
+    private static CryptoContext create() {
+        try {
+            return new CryptoContext(
+                    Cipher.getInstance("AES/CBC/PKCS5Padding"),
+                    Cipher.getInstance("AES/GCM/NoPadding"),
+                    MessageDigest.getInstance("MD5"),
+                    MessageDigest.getInstance("SHA-256"),
+                    SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256"),
+                    Mac.getInstance("HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Required JCA algorithm not available", e);
+        }
+    }
+
+    /**
+     * Returns the calling thread's context. The returned instance must not be shared with other threads.
+     */
+    static CryptoContext get() {
+        return contexts.get();
+    }
+
+    static SecureRandom secureRandom() {
+        return secureRandom;
+    }
+
+    Cipher aesCbc() {
+        return aesCbc;
+    }
+
+    Cipher aesGcmDecrypt() {
+        return aesGcmDecrypt;
+    }
+
+    MessageDigest md5() {
+        md5.reset();
+        return md5;
+    }
+
+    MessageDigest sha256() {
+        sha256.reset();
+        return sha256;
+    }
+
+    SecretKeyFactory pbkdf2() {
+        return pbkdf2;
+    }
+
+    Mac hmacSha256() {
+        return hmacSha256;
+    }
+}
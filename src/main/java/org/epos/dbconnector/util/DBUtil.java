@@ -37,6 +37,15 @@ public class DBUtil {
     }
 
 
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> getPageFromDB(EntityManager em, Class<T> clazz, String queryName, String parameterName, Object item, int maxResults) {
+        Query qry = em.createNamedQuery(queryName);
+        qry.setParameter(parameterName, item);
+        qry.setMaxResults(maxResults);
+
+        return (List<T>) qry.getResultList();
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> List<T> getFromDB(EntityManager em, Class<T> clazz, String queryName, HashMap<String, Object> parameter) {
 
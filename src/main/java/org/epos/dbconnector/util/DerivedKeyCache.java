@@ -0,0 +1,142 @@
+package org.epos.dbconnector.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe LRU cache of derived AES key material.
+ *
+ * Entries are keyed by key derivation function, a SHA-256 fingerprint of the
+ * passphrase (the passphrase itself is never retained) and the salt. Since all
+ * stored rows share the same passphrase and salt, a single entry is enough to
+ * take PBKDF2/EVP key derivation off the read path.
+ */
+public class DerivedKeyCache {
+
+    /**
+     * Key derivation functions whose output can be cached.
+     */
+    public enum Kdf {
+        PBKDF2,
+        EVP
+    }
+
+    /**
+     * Computes the key material on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Derivation {
+        byte[][] derive() throws Exception;
+    }
+
+    private final int maxEntries;
+    private final Map<CacheKey, byte[][]> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DerivedKeyCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, byte[][]> eldest) {
+                return size() > DerivedKeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached [key, iv] pair for the given inputs, deriving and caching it on a miss.
+     * The returned arrays are shared and must not be modified by the caller.
+     *
+     * @param kdf        The key derivation function
+     * @param passphrase The passphrase
+     * @param salt       The salt
+     * @param derivation Computes the key material when it is not cached
+     * @return Array containing [key, iv]
+     */
+    public byte[][] get(Kdf kdf, String passphrase, byte[] salt, Derivation derivation) throws Exception {
+        CacheKey key = new CacheKey(kdf, fingerprint(passphrase), salt.clone());
+
+        byte[][] keyAndIv;
+        synchronized (entries) {
+            keyAndIv = entries.get(key);
+        }
+        if (keyAndIv != null) {
+            hits.increment();
+            return keyAndIv;
+        }
+
+        // Derive outside the lock: concurrent misses on the same key may derive twice, which is harmless
+        misses.increment();
+        keyAndIv = derivation.derive();
+        synchronized (entries) {
+            entries.put(key, keyAndIv);
+        }
+        return keyAndIv;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static byte[] fingerprint(String passphrase) {
+        return CryptoContext.get().sha256().digest(passphrase.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class CacheKey {
+        private final Kdf kdf;
+        private final byte[] passphraseFingerprint;
+        private final byte[] salt;
+        private final int hash;
+
+        private CacheKey(Kdf kdf, byte[] passphraseFingerprint, byte[] salt) {
+            this.kdf = kdf;
+            this.passphraseFingerprint = passphraseFingerprint;
+            this.salt = salt;
+            this.hash = 31 * (31 * kdf.hashCode() + Arrays.hashCode(passphraseFingerprint)) + Arrays.hashCode(salt);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof CacheKey))
+                return false;
+            CacheKey other = (CacheKey) obj;
+            return kdf == other.kdf
+                    && Arrays.equals(passphraseFingerprint, other.passphraseFingerprint)
+                    && Arrays.equals(salt, other.salt);
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package org.epos.dbconnector.util;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -65,6 +78,70 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Normalizes a range of UTF-8 encoded JSON like {@link #normalize(String)}.
+     *
+     * @param escapedJson Array holding the UTF-8 JSON
+     * @param offset      Start of the JSON
+     * @param length      Length of the JSON
+     * @return A properly formatted JSON string with nested objects/arrays
+     */
+    public static String normalize(byte[] escapedJson, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+
+        try {
+            JsonNode rootNode;
+
+            // If the entire value is wrapped in quotes (it's a JSON string value), unwrap it
+            if (length > 1 && escapedJson[offset] == '"' && escapedJson[offset + length - 1] == '"') {
+                rootNode = objectMapper.readTree(objectMapper.readValue(escapedJson, offset, length, String.class));
+            } else {
+                rootNode = objectMapper.readTree(escapedJson, offset, length);
+            }
+
+            return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(normalizeNode(rootNode));
+
+        } catch (IOException e) {
+            // If parsing fails, return the original
+            return new String(escapedJson, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Normalizes UTF-8 encoded JSON like {@link #normalize(String)} while reading it from a stream and
+     * writing the pretty printed result to another, so the document is never held in memory as a whole.
+     * A value wrapped in quotes is unescaped on the fly; only string values that themselves contain JSON
+     * are parsed into memory, one at a time.
+     * Unlike {@link #normalize(String)}, input that is not valid JSON results in an IOException, as part
+     * of the output may already have been written.
+     *
+     * @param escapedJson Stream of the UTF-8 JSON with escaped nested JSON
+     * @param out         Destination of the normalized JSON, left open
+     */
+    public static void normalize(InputStream escapedJson, OutputStream out) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(escapedJson, 1);
+        int first = in.read();
+        if (first == -1) {
+            return;
+        }
+
+        JsonParser parser;
+        if (first == '"') {
+            // The entire value is a JSON string: parse its unescaped content
+            parser = objectMapper.getFactory().createParser(new JsonStringReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } else {
+            in.unread(first);
+            parser = objectMapper.getFactory().createParser(in);
+        }
+
+        try (parser; JsonGenerator generator = objectMapper.writerWithDefaultPrettyPrinter().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            copyNormalized(parser, generator);
+        }
+    }
+
     /**
      * Normalizes a JSON string without pretty printing.
      *
@@ -180,6 +257,114 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Copies tokens from the parser to the generator, replacing string values that contain JSON
+     * by their normalized content, like {@link #normalizeNode(JsonNode)} does for trees.
+     */
+    private static void copyNormalized(JsonParser parser, JsonGenerator generator) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case VALUE_STRING:
+                    String text = parser.getText();
+                    JsonNode parsed = null;
+                    if (looksLikeJson(text)) {
+                        try {
+                            parsed = objectMapper.readTree(text);
+                        } catch (JsonProcessingException e) {
+                            // Not valid JSON, written as-is
+                        }
+                    }
+                    if (parsed != null) {
+                        objectMapper.writeTree(generator, normalizeNode(parsed));
+                    } else {
+                        generator.writeString(text);
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    // Same representation as a parsed tree (DoubleNode)
+                    generator.writeNumber(parser.getDoubleValue());
+                    break;
+                default:
+                    generator.copyCurrentEvent(parser);
+            }
+        }
+    }
+
+    /**
+     * Reads the content of a JSON string literal whose opening quote was already consumed,
+     * resolving escape sequences, and ends at the closing quote.
+     */
+    private static final class JsonStringReader extends Reader {
+
+        private final Reader in;
+        private boolean ended;
+
+        private JsonStringReader(Reader in) {
+            this.in = new BufferedReader(in);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int count = 0;
+            while (count < length) {
+                int c = in.read();
+                if (c == -1) {
+                    throw new JsonParseException(null, "Unterminated JSON string");
+                }
+                if (c == '"') {
+                    ended = true;
+                    break;
+                }
+                if (c == '\\') {
+                    c = unescape();
+                }
+                buffer[offset + count++] = (char) c;
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+
+        private int unescape() throws IOException {
+            int c = in.read();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(in.read(), 16);
+                        if (digit < 0) {
+                            throw new JsonParseException(null, "Invalid unicode escape in JSON string");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    return value;
+                default:
+                    throw new JsonParseException(null, "Invalid escape in JSON string: \\" + (char) c);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
     /**
      * Recursively denormalizes a JsonNode by stringifying nested objects/arrays.
      * Only stringifies values that would have been stringified in the original format.
@@ -10,7 +10,8 @@ public class MappingToAndFromCommonBean {
 
 	public static Configuration map(Configurations pu) {
 		if (pu == null) return null;
-        Configuration e = new Configuration(pu.getId(), pu.getConfiguration());
+		Configuration e = new Configuration(pu.getId(), pu.getConfiguration());
+		if (pu.getConfigurationBin() != null) e.setConfigurationBin(pu.getConfigurationBin());
 		return e;
 	}
 
@@ -18,8 +19,7 @@ public class MappingToAndFromCommonBean {
 		if (pu == null) return null;
 		List<Configuration> configurations = new ArrayList<Configuration>();
 		for(Configurations c : pu) {
-			Configuration e = new Configuration(c.getId(), c.getConfiguration());
-			configurations.add(e);
+			configurations.add(map(c));
 		}
 		return configurations;
 	}
@@ -0,0 +1,113 @@
+package org.epos.dbconnector.util;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of ids known not to exist, each remembered for a limited time.
+ *
+ * Like {@link TinyLfuCache}, invalidations win over concurrent lookups: an id is only added if no
+ * id was invalidated since the caller took its {@link #stamp()}, so a lookup that found nothing
+ * just before the id was created cannot hide the new configuration.
+ *
+ * Every id is remembered equally long, so ids expire in the order they were added. When the cache
+ * is full, the oldest id makes room for the new one.
+ */
+public class NegativeCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    // Ids by the System.nanoTime at which they expire
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    // Ids in the order they were added, with their expiry, guarded by this. May hold entries
+    // for ids since removed or added again, which are skipped when they reach the head.
+    private final ArrayDeque<Entry> order = new ArrayDeque<>();
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param maxSize    Maximum number of ids, must be positive
+     * @param ttlMillis  Time an id is remembered, in milliseconds
+     */
+    public NegativeCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * Returns whether the id is known not to exist.
+     */
+    public boolean contains(String id) {
+        Long expiry = expiries.get(id);
+        if (expiry == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiry >= 0) {
+            expiries.remove(id, expiry);
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #add(String, long)}, to be taken before looking the id up.
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Remembers that an id does not exist, unless any id was invalidated since the stamp was taken.
+     * Expired ids are dropped from the head of the insertion order, and the oldest ids while the cache is full.
+     */
+    public synchronized void add(String id, long stamp) {
+        if (stamp != invalidations) {
+            return;
+        }
+        long now = System.nanoTime();
+        Entry head;
+        while ((head = order.peekFirst()) != null && (now - head.expiry >= 0 || order.size() >= maxSize)) {
+            order.pollFirst();
+            expiries.remove(head.id, head.expiry);
+        }
+        long expiry = now + ttlNanos;
+        expiries.put(id, expiry);
+        order.addLast(new Entry(id, expiry));
+    }
+
+    public synchronized void invalidate(String id) {
+        invalidations++;
+        expiries.remove(id);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        expiries.clear();
+        order.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final long expiry;
+
+        private Entry(String id, long expiry) {
+            this.id = id;
+            this.expiry = expiry;
+        }
+    }
+}
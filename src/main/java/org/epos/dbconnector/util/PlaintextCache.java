@@ -0,0 +1,213 @@
+package org.epos.dbconnector.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, thread-safe cache of decrypted and normalized configurations.
+ *
+ * Stored values are encrypted deterministically, so the ciphertext identifies its content: entries
+ * are keyed by a SHA-256 digest of the stored value and never go stale, an updated configuration
+ * simply has a different key. Both tiers are LRU and bounded by size in bytes rather than by entry
+ * count. Entries evicted from the heap tier move to the optional off-heap tier, where they are kept
+ * as UTF-8 in direct buffers outside the Java heap, and move back on their next hit.
+ */
+public class PlaintextCache {
+
+    // Rough per-entry cost of the key, map entry and String headers on the heap
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxHeapBytes;
+    private final long maxOffHeapBytes;
+    private final LinkedHashMap<Digest, String> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Digest, ByteBuffer> offHeap = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapBytes;
+    private long offHeapBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder offHeapHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxHeapBytes    Size of the heap tier in bytes, must be positive
+     * @param maxOffHeapBytes Size of the off-heap tier in bytes, 0 disables it
+     */
+    public PlaintextCache(long maxHeapBytes, long maxOffHeapBytes) {
+        if (maxHeapBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (maxOffHeapBytes < 0) {
+            throw new IllegalArgumentException("Off-heap cache size must not be negative");
+        }
+        this.maxHeapBytes = maxHeapBytes;
+        this.maxOffHeapBytes = maxOffHeapBytes;
+    }
+
+    /**
+     * Returns the normalized configuration for a stored value held in the bytea column,
+     * computing and caching it on a miss.
+     *
+     * @param storedValue The encrypted value as stored
+     * @param loader      Decrypts and normalizes the value when it is not cached
+     * @return The normalized configuration
+     */
+    public String get(byte[] storedValue, Supplier<String> loader) {
+        return lookup(digest(storedValue), loader);
+    }
+
+    /**
+     * Returns the normalized configuration for a Base64 stored value held in the text column,
+     * computing and caching it on a miss.
+     *
+     * @param storedValue The encrypted value as stored
+     * @param loader      Decrypts and normalizes the value when it is not cached
+     * @return The normalized configuration
+     */
+    public String get(String storedValue, Supplier<String> loader) {
+        return lookup(digest(storedValue.getBytes(StandardCharsets.US_ASCII)), loader);
+    }
+
+    private String lookup(Digest key, Supplier<String> loader) {
+        String value;
+        synchronized (this) {
+            value = heap.get(key);
+            if (value == null) {
+                ByteBuffer buffer = offHeap.remove(key);
+                if (buffer != null) {
+                    offHeapBytes -= buffer.capacity();
+                    byte[] utf8 = new byte[buffer.capacity()];
+                    buffer.duplicate().get(utf8);
+                    value = new String(utf8, StandardCharsets.UTF_8);
+                    putHeap(key, value);
+                    hits.increment();
+                    offHeapHits.increment();
+                    return value;
+                }
+            }
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        // Load outside the lock: concurrent misses on the same key may load twice, which is harmless
+        misses.increment();
+        value = loader.get();
+        synchronized (this) {
+            putHeap(key, value);
+        }
+        return value;
+    }
+
+    private void putHeap(Digest key, String value) {
+        long weight = heapWeight(value);
+        if (weight > maxHeapBytes) {
+            return;
+        }
+        String previous = heap.put(key, value);
+        if (previous != null) {
+            heapBytes -= heapWeight(previous);
+        }
+        heapBytes += weight;
+        Iterator<Map.Entry<Digest, String>> eldest = heap.entrySet().iterator();
+        while (heapBytes > maxHeapBytes) {
+            Map.Entry<Digest, String> entry = eldest.next();
+            eldest.remove();
+            heapBytes -= heapWeight(entry.getValue());
+            putOffHeap(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void putOffHeap(Digest key, String value) {
+        if (maxOffHeapBytes == 0) {
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > maxOffHeapBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(utf8.length).put(utf8).flip();
+        ByteBuffer previous = offHeap.put(key, buffer);
+        if (previous != null) {
+            offHeapBytes -= previous.capacity();
+        }
+        offHeapBytes += utf8.length;
+        Iterator<ByteBuffer> eldest = offHeap.values().iterator();
+        while (offHeapBytes > maxOffHeapBytes) {
+            offHeapBytes -= eldest.next().capacity();
+            eldest.remove();
+        }
+    }
+
+    private static long heapWeight(String value) {
+        // Assume UTF-16 storage, compact Latin-1 strings take half of this
+        return 2L * value.length() + ENTRY_OVERHEAD;
+    }
+
+    private static Digest digest(byte[] storedValue) {
+        return new Digest(CryptoContext.get().sha256().digest(storedValue));
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the hits served from the off-heap tier, which are included in {@link #getHits()}.
+     */
+    public long getOffHeapHits() {
+        return offHeapHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return heap.size() + offHeap.size();
+    }
+
+    public synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public synchronized long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public synchronized void clear() {
+        heap.clear();
+        offHeap.clear();
+        heapBytes = 0;
+        offHeapBytes = 0;
+    }
+
+    private static final class Digest {
+        private final byte[] value;
+        private final int hash;
+
+        private Digest(byte[] value) {
+            this.value = value;
+            this.hash = Arrays.hashCode(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Digest))
+                return false;
+            return Arrays.equals(value, ((Digest) obj).value);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.epos.dbconnector.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers recent writes, so reads that could miss them on a read replica go to the primary.
+ *
+ * A read of one id must go to the primary for the window after that id, or all ids, were written.
+ * A listing must go to the primary for the window after any write. Replicas lagging more than the
+ * window are not read from, so a write older than the window has reached every replica in use.
+ */
+public class ReadYourWrites {
+
+    // Number of recently written ids above which expired ones are dropped
+    private static final int PRUNE_SIZE = 10000;
+
+    private final long windowNanos;
+    private final LongSupplier nanoClock;
+    // When configurations were last written, by id, and for any or all configurations, as nanoClock times
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private volatile long lastWrite;
+    private volatile long allWritten;
+
+    /**
+     * @param windowMillis Time after a write during which reads that could miss it go to the primary, in ms
+     */
+    public ReadYourWrites(long windowMillis) {
+        this(windowMillis, System::nanoTime);
+    }
+
+    /**
+     * @param windowMillis Time after a write during which reads that could miss it go to the primary, in ms
+     * @param nanoClock    Source of the current time in ns, such as System::nanoTime
+     */
+    public ReadYourWrites(long windowMillis, LongSupplier nanoClock) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.nanoClock = nanoClock;
+        this.lastWrite = nanoClock.getAsLong() - windowNanos;
+        this.allWritten = lastWrite;
+    }
+
+    /**
+     * Records a committed write.
+     *
+     * @param id The id written, or null for writes to any number of configurations
+     */
+    public void recordWrite(String id) {
+        long now = nanoClock.getAsLong();
+        lastWrite = now;
+        if (id == null) {
+            allWritten = now;
+            return;
+        }
+        recentWrites.put(id, now);
+        if (recentWrites.size() > PRUNE_SIZE) {
+            recentWrites.values().removeIf(written -> now - written >= windowNanos);
+        }
+    }
+
+    /**
+     * Returns whether a read must go to the primary, as it could miss a write made within the window.
+     *
+     * @param id The id read, or null for listings, which could miss a write of any configuration
+     */
+    public boolean mustReadPrimary(String id) {
+        long now = nanoClock.getAsLong();
+        if (now - allWritten < windowNanos) {
+            return true;
+        }
+        Long written = id == null ? Long.valueOf(lastWrite) : recentWrites.get(id);
+        return written != null && now - written < windowNanos;
+    }
+}
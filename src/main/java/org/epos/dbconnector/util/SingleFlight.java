@@ -0,0 +1,118 @@
+package org.epos.dbconnector.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same key into one: the first caller runs the load and callers
+ * arriving while it runs wait for it and share its result, or its exception. Results are not kept
+ * once the load completed, later callers load again.
+ *
+ * Each load records the stamp its caller passed, such as a write sequence number read before the
+ * load. A caller only joins a load whose stamp is at least its own, so a caller that saw a write
+ * does not get the result of a load that started before it. Such a caller runs its own load, which
+ * later callers join instead.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    /**
+     * Returns the result of the load for this key, running it unless a load of the key is in progress.
+     *
+     * @param key    The key
+     * @param loader The load, run on the calling thread
+     * @return The result of the load, which may be shared with other callers and must not be modified
+     */
+    public V run(K key, Supplier<? extends V> loader) {
+        return run(key, Long.MIN_VALUE, loader);
+    }
+
+    /**
+     * Returns the result of the load for this key, running it unless a load of the key that started
+     * with at least this stamp is in progress.
+     *
+     * @param key    The key
+     * @param stamp  The oldest stamp of a load whose result the caller accepts
+     * @param loader The load, run on the calling thread
+     * @return The result of the load, which may be shared with other callers and must not be modified
+     */
+    public V run(K key, long stamp, Supplier<? extends V> loader) {
+        Flight<V> flight = new Flight<>(stamp);
+        while (true) {
+            Flight<V> inProgress = flights.putIfAbsent(key, flight);
+            if (inProgress == null) {
+                break;
+            }
+            if (inProgress.stamp >= stamp) {
+                collapsed.increment();
+                return join(inProgress);
+            }
+            // Started before what the caller saw: take its place, its callers still get its result
+            if (flights.replace(key, inProgress, flight)) {
+                break;
+            }
+        }
+
+        loads.increment();
+        try {
+            V value = loader.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private static <V> V join(Flight<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            // Rethrow what the load threw, as the caller running it got it
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of loads run.
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of calls that shared the result of a load run by another caller.
+     */
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    /**
+     * Returns the number of loads in progress.
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    private static final class Flight<V> extends CompletableFuture<V> {
+        private final long stamp;
+
+        private Flight(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.epos.dbconnector.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Bounded, thread-safe cache with W-TinyLFU admission, bounded by the weight of its entries in bytes.
+ *
+ * New entries go to a small LRU admission window. Entries leaving the window only enter the main
+ * space if they were accessed more often than the entry they would evict, as estimated by a
+ * count-min sketch of recent accesses, so a burst of one-off lookups cannot flush the hot entries.
+ * The main space is a segmented LRU: entries hit again move from probation to the protected segment.
+ *
+ * Invalidations win over concurrent loads: a value loaded while any entry was invalidated is
+ * returned but not cached, so a load that read the database before a write cannot cache stale data.
+ */
+public class TinyLfuCache<K, V> {
+
+    // Share of the capacity given to the admission window
+    private static final double WINDOW_SHARE = 0.01;
+    // Share of the main space given to the protected segment
+    private static final double PROTECTED_SHARE = 0.8;
+    // Entry weight assumed to size the frequency sketch
+    private static final long ASSUMED_ENTRY_WEIGHT = 1024;
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxMainWeight;
+    private final long maxProtectedWeight;
+    private final ToLongBiFunction<K, V> weigher;
+    private final FrequencySketch sketch;
+
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+    // Insertion ordered, the first entry of each segment is its least recently used one
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> protectedSegment = new LinkedHashMap<>();
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictedWeight = new LongAdder();
+
+    /**
+     * @param maxWeight Total weight of the entries in bytes, must be positive
+     * @param weigher   Estimates the heap bytes taken by an entry
+     */
+    public TinyLfuCache(long maxWeight, ToLongBiFunction<K, V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.maxWindowWeight = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.maxMainWeight = maxWeight - maxWindowWeight;
+        this.maxProtectedWeight = (long) (maxMainWeight * PROTECTED_SHARE);
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(maxWeight / ASSUMED_ENTRY_WEIGHT);
+    }
+
+    /**
+     * Returns the cached value for a key, loading and caching it on a miss. The loader runs outside
+     * the cache's lock; concurrent misses on the same key may load twice, which is harmless.
+     *
+     * @param key    The key
+     * @param loader Loads the value when it is not cached, may return null which is not cached
+     * @return The value, or null if the loader returned null
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        long stamp;
+        synchronized (this) {
+            sketch.increment(key.hashCode());
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                onHit(node);
+                hits.increment();
+                return node.value;
+            }
+            stamp = invalidations;
+        }
+
+        misses.increment();
+        V value = loader.apply(key);
+        if (value != null) {
+            synchronized (this) {
+                if (stamp == invalidations) {
+                    put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes the entry for a key, and keeps values being loaded concurrently from being cached.
+     */
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Removes all entries, and keeps values being loaded concurrently from being cached.
+     */
+    public synchronized void invalidateAll() {
+        invalidations++;
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    private void onHit(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.remove(node.key);
+                window.put(node.key, node);
+                break;
+            case PROBATION:
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                node.segment = Segment.PROTECTED;
+                protectedSegment.put(node.key, node);
+                protectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protectedSegment.remove(node.key);
+                protectedSegment.put(node.key, node);
+                break;
+        }
+    }
+
+    private void put(K key, V value) {
+        long weight = weigher.applyAsLong(key, value);
+        if (weight > maxWeight) {
+            return;
+        }
+        Node<K, V> previous = data.remove(key);
+        if (previous != null) {
+            unlink(previous);
+        }
+        Node<K, V> node = new Node<>(key, value, weight);
+        data.put(key, node);
+        window.put(key, node);
+        windowWeight += weight;
+
+        // Entries leaving the window are candidates for the main space
+        Iterator<Node<K, V>> eldest = window.values().iterator();
+        while (windowWeight > maxWindowWeight) {
+            Node<K, V> candidate = eldest.next();
+            eldest.remove();
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves a candidate from the window to the probation segment if it is accessed more often
+     * than each entry it has to evict, or evicts the candidate.
+     */
+    private void admit(Node<K, V> candidate) {
+        if (candidate.weight > maxMainWeight) {
+            evict(candidate);
+            return;
+        }
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (probationWeight + protectedWeight + candidate.weight > maxMainWeight) {
+            Node<K, V> victim = !probation.isEmpty()
+                    ? probation.values().iterator().next()
+                    : protectedSegment.values().iterator().next();
+            if (candidateFrequency <= sketch.frequency(victim.key.hashCode())) {
+                evict(candidate);
+                return;
+            }
+            unlink(victim);
+            evict(victim);
+        }
+        candidate.segment = Segment.PROBATION;
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private void demoteProtected() {
+        Iterator<Node<K, V>> eldest = protectedSegment.values().iterator();
+        while (protectedWeight > maxProtectedWeight) {
+            Node<K, V> node = eldest.next();
+            eldest.remove();
+            protectedWeight -= node.weight;
+            node.segment = Segment.PROBATION;
+            probation.put(node.key, node);
+            probationWeight += node.weight;
+        }
+    }
+
+    /**
+     * Removes a node from its segment, without removing it from the index.
+     */
+    private void unlink(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.remove(node.key);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                break;
+            case PROTECTED:
+                protectedSegment.remove(node.key);
+                protectedWeight -= node.weight;
+                break;
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        data.remove(node.key);
+        evictions.increment();
+        evictedWeight.add(node.weight);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the total weight of the entries evicted so far, in bytes.
+     */
+    public long getEvictedWeight() {
+        return evictedWeight.sum();
+    }
+
+    public synchronized int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns the total weight of the cached entries, in bytes.
+     */
+    public synchronized long getWeight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final long weight;
+        private Segment segment = Segment.WINDOW;
+
+        private Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often keys were accessed recently.
+     * Each row has 4 counters per expected entry, and all counters are halved after 10 accesses
+     * per expected entry, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int COUNTERS_PER_ENTRY = 4;
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetSize;
+        private int additions;
+
+        private FrequencySketch(long expectedEntries) {
+            int entries = (int) Math.max(16, Math.min(1 << 20, expectedEntries));
+            int width = Integer.highestOneBit(entries * COUNTERS_PER_ENTRY * 2 - 1);
+            counters = new byte[DEPTH * width];
+            mask = width - 1;
+            resetSize = 10 * entries;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (counters[i] < MAX_COUNT) {
+                    counters[i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return row * (mask + 1) + ((int) h & mask);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+-- Changes to the sharing_catalogue schema the service depends on, on top of the original
+-- configurations table. Every statement is idempotent, so the script can be run again safely.
+--
+-- Run it before deploying, as a database user with DDL rights:
+--   psql "$POSTGRESQL_CONNECTION_STRING" -f schema-updates.sql
+-- or set CONFIGURATION_SCHEMA_UPDATE=true to have the service apply it at startup.
+
+-- Encrypted configurations stored as bytes rather than Base64 text (CONFIGURATION_STORAGE_COLUMN=bytea).
+-- Each row holds its value in one of the two columns.
+ALTER TABLE sharing_catalogue.configurations ADD COLUMN IF NOT EXISTS configuration_bin BYTEA;
+ALTER TABLE sharing_catalogue.configurations ALTER COLUMN configuration DROP NOT NULL;
+
+-- Dictionaries compressed configurations were compressed with, by id
+CREATE TABLE IF NOT EXISTS sharing_catalogue.compression_dictionaries (
+    id BIGINT PRIMARY KEY,
+    dictionary BYTEA NOT NULL,
+    created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Sends the ids of the configurations changed by each statement on the configuration_changes channel,
+-- one per line, which the ConfigurationChangeListener of each instance listens on to evict them from
+-- its caches. Statements changing many rows, or ids that do not fit, send '*' for "all changed" instead.
+CREATE OR REPLACE FUNCTION sharing_catalogue.notify_configuration_changes() RETURNS trigger AS $$
+DECLARE
+    changed BIGINT;
+    ids TEXT;
+BEGIN
+    SELECT count(*), string_agg(id, E'\n') INTO changed, ids
+        FROM (SELECT id FROM changed_rows LIMIT 101) sample;
+    IF changed = 0 THEN
+        RETURN NULL;
+    END IF;
+    -- NOTIFY payloads are limited to 8000 bytes, and an id containing a newline cannot be told apart
+    IF changed > 100 OR octet_length(ids) > 7999
+            OR length(ids) - length(replace(ids, E'\n', '')) <> changed - 1 THEN
+        ids := '*';
+    END IF;
+    PERFORM pg_notify('configuration_changes', ids);
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+-- Transition tables need one trigger per event
+DROP TRIGGER IF EXISTS configurations_notify_insert ON sharing_catalogue.configurations;
+CREATE TRIGGER configurations_notify_insert
+    AFTER INSERT ON sharing_catalogue.configurations
+    REFERENCING NEW TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION sharing_catalogue.notify_configuration_changes();
+
+DROP TRIGGER IF EXISTS configurations_notify_update ON sharing_catalogue.configurations;
+CREATE TRIGGER configurations_notify_update
+    AFTER UPDATE ON sharing_catalogue.configurations
+    REFERENCING NEW TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION sharing_catalogue.notify_configuration_changes();
+
+DROP TRIGGER IF EXISTS configurations_notify_delete ON sharing_catalogue.configurations;
+CREATE TRIGGER configurations_notify_delete
+    AFTER DELETE ON sharing_catalogue.configurations
+    REFERENCING OLD TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION sharing_catalogue.notify_configuration_changes();
+
+-- Replaced by the statement level triggers above
+DROP TRIGGER IF EXISTS configurations_notify_change ON sharing_catalogue.configurations;
+DROP FUNCTION IF EXISTS sharing_catalogue.notify_configuration_change();
@@ -0,0 +1,141 @@
+package org.epos.dbconnector.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for routing reads to read replicas.
+ */
+class RoutingDataSourceTest {
+
+    private static final long MAX_LAG = 5000;
+
+    @Test
+    @DisplayName("Only replica reads go to the replicas, which are used in turn")
+    void replicaReadsGoToReplicas() throws SQLException {
+        Connection primary = connection();
+        Connection first = connection();
+        Connection second = connection();
+        RoutingDataSource routing = new RoutingDataSource(dataSource(primary), List.of(dataSource(first), dataSource(second)), MAX_LAG);
+
+        assertSame(primary, routing.getConnection());
+        assertSame(first, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        assertSame(second, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        assertSame(first, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        assertSame(primary, routing.getConnection());
+        assertEquals(3, routing.getReplicaConnections());
+    }
+
+    @Test
+    @DisplayName("Reads fall back to the primary when a replica is unavailable")
+    void unavailableReplicaFallsBack() throws SQLException {
+        Connection primary = connection();
+        DataSource down = dataSource(null);
+        RoutingDataSource routing = new RoutingDataSource(dataSource(primary), List.of(down), MAX_LAG);
+
+        assertSame(primary, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        assertEquals(1, routing.getFallbacks());
+    }
+
+    @Test
+    @DisplayName("A replica that failed is skipped without being asked for a connection until its retry delay passed")
+    void failedReplicaIsSkipped() throws SQLException {
+        Connection primary = connection();
+        Connection healthy = connection();
+        AtomicInteger attempts = new AtomicInteger();
+        DataSource down = (DataSource) Proxy.newProxyInstance(RoutingDataSourceTest.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection")) {
+                        attempts.incrementAndGet();
+                        throw new SQLException("Replica down");
+                    }
+                    return null;
+                });
+        RoutingDataSource routing = new RoutingDataSource(dataSource(primary), List.of(down, dataSource(healthy)), MAX_LAG);
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(healthy, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        }
+        assertEquals(1, attempts.get());
+        assertEquals(1, routing.getUsableReplicas());
+        assertEquals(0, routing.getFallbacks());
+    }
+
+    @Test
+    @DisplayName("Replicas lagging more than the maximum lag are skipped until they caught up")
+    void laggingReplicaIsSkipped() throws SQLException {
+        Connection primary = connection();
+        AtomicLong lag = new AtomicLong(MAX_LAG + 1);
+        RoutingDataSource routing = new RoutingDataSource(dataSource(primary), List.of(dataSource(lagging(lag))), MAX_LAG);
+
+        routing.checkLag();
+        assertEquals(0, routing.getUsableReplicas());
+        assertSame(primary, RoutingDataSource.readFromReplica(() -> connect(routing)));
+        assertEquals(1, routing.getFallbacks());
+
+        lag.set(0);
+        routing.checkLag();
+        assertEquals(1, routing.getUsableReplicas());
+        assertNotSame(primary, RoutingDataSource.readFromReplica(() -> connect(routing)));
+    }
+
+    private static Connection connect(DataSource dataSource) {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Connection connection() {
+        return (Connection) Proxy.newProxyInstance(RoutingDataSourceTest.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> method.getName().equals("equals") ? proxy == args[0] : null);
+    }
+
+    /**
+     * Returns a connection whose queries return the replay lag, in ms.
+     */
+    private static Connection lagging(AtomicLong lag) {
+        ClassLoader loader = RoutingDataSourceTest.class.getClassLoader();
+        ResultSet result = (ResultSet) Proxy.newProxyInstance(loader, new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "next" -> true;
+                    case "getDouble" -> (double) lag.get();
+                    default -> null;
+                });
+        Statement statement = (Statement) Proxy.newProxyInstance(loader, new Class<?>[] { Statement.class },
+                (proxy, method, args) -> method.getName().equals("executeQuery") ? result : null);
+        return (Connection) Proxy.newProxyInstance(loader, new Class<?>[] { Connection.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "createStatement" -> statement;
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    /**
+     * Returns a DataSource handing out the connection, or failing when it is null.
+     */
+    private static DataSource dataSource(Connection connection) {
+        return (DataSource) Proxy.newProxyInstance(RoutingDataSourceTest.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection")) {
+                        if (connection == null) throw new SQLException("Replica down");
+                        return connection;
+                    }
+                    return null;
+                });
+    }
+}
@@ -470,6 +470,268 @@ class AESUtilTest {
         }
     }
 
+    @Nested
+    @DisplayName("Envelope Format Tests")
+    class EnvelopeFormatTests {
+
+        @Test
+        @DisplayName("Deterministic encryption produces a decryptable envelope")
+        void deterministicEncryptionProducesEnvelope() {
+            String encrypted = AESUtil.encryptDeterministic(SAMPLE_CONFIG);
+
+            assertTrue(AESUtil.isEnvelope(encrypted));
+            assertTrue(AESUtil.isEncrypted(encrypted));
+            assertEquals(encrypted, AESUtil.encryptDeterministic(SAMPLE_CONFIG));
+            assertEquals(SAMPLE_CONFIG, AESUtil.decrypt(encrypted));
+        }
+
+        @Test
+        @DisplayName("Envelope converts to the equivalent OpenSSL payload")
+        void envelopeConvertsToOpenSsl() {
+            String encrypted = AESUtil.encryptDeterministic(SAMPLE_CONFIG);
+            String openSsl = AESUtil.toOpenSslFormat(encrypted);
+
+            assertTrue(openSsl.startsWith("U2FsdGVkX1"));
+            assertFalse(AESUtil.isEnvelope(openSsl));
+            assertEquals(SAMPLE_CONFIG, AESUtil.decryptLegacy(openSsl, INTERNAL_SALT));
+            assertEquals(openSsl, AESUtil.toOpenSslFormat(openSsl));
+        }
+
+        @Test
+        @DisplayName("Legacy rows stored as Salted__ with the fixed salt still decrypt")
+        void legacyStoredRowsStillDecrypt() {
+            byte[] fixedSalt = AESUtil.extractSalt(AESUtil.encryptDeterministic("x"));
+            String legacyRow = AESUtil.encryptLegacyWithSalt(SAMPLE_CONFIG, INTERNAL_SALT, fixedSalt);
+
+            assertFalse(AESUtil.isEnvelope(legacyRow));
+            assertEquals(SAMPLE_CONFIG, AESUtil.decrypt(legacyRow));
+        }
+
+        @Test
+        @DisplayName("Envelope with an unknown version is rejected")
+        void unknownEnvelopeVersionRejected() {
+            byte[] decoded = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic("test"));
+            decoded[4] = 99;
+            String tampered = java.util.Base64.getEncoder().encodeToString(decoded);
+
+            assertThrows(RuntimeException.class, () -> AESUtil.decrypt(tampered));
+            assertThrows(IllegalArgumentException.class, () -> AESUtil.toOpenSslFormat(tampered));
+        }
+    }
+
+    @Nested
+    @DisplayName("AES-GCM v2 Envelope Tests")
+    class GcmEnvelopeTests {
+
+        @Test
+        @DisplayName("v2 envelope round-trips and is deterministic")
+        void v2RoundTrip() {
+            String encrypted = AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2);
+
+            assertEquals(2, AESUtil.getEnvelopeVersion(encrypted));
+            assertTrue(AESUtil.isEncrypted(encrypted));
+            assertEquals(encrypted, AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2));
+            assertEquals(SAMPLE_CONFIG, AESUtil.decrypt(encrypted));
+        }
+
+        @Test
+        @DisplayName("Different plaintexts use different nonces")
+        void differentPlaintextsDifferentNonces() {
+            byte[] first = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic("first", 2));
+            byte[] second = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic("second", 2));
+
+            assertFalse(java.util.Arrays.equals(first, 8, 20, second, 8, 20));
+        }
+
+        @Test
+        @DisplayName("Tampered v2 ciphertext or header fails authentication")
+        void tamperedV2Rejected() {
+            byte[] decoded = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic("test data", 2));
+            byte[] body = decoded.clone();
+            body[body.length - 1] ^= 1;
+            byte[] header = decoded.clone();
+            header[7] ^= 1;
+
+            assertThrows(RuntimeException.class, () -> AESUtil.decrypt(java.util.Base64.getEncoder().encodeToString(body)));
+            assertThrows(RuntimeException.class, () -> AESUtil.decrypt(java.util.Base64.getEncoder().encodeToString(header)));
+        }
+
+        @Test
+        @DisplayName("v2 envelope converts to an OpenSSL payload for clients")
+        void v2ConvertsToOpenSsl() {
+            String openSsl = AESUtil.toOpenSslFormat(AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2));
+
+            assertTrue(openSsl.startsWith("U2FsdGVkX1"));
+            assertEquals(SAMPLE_CONFIG, AESUtil.decryptLegacy(openSsl, INTERNAL_SALT));
+        }
+
+        @Test
+        @DisplayName("Envelope version is reported for all stored formats")
+        void envelopeVersions() {
+            assertEquals(0, AESUtil.getEnvelopeVersion(AESUtil.encryptLegacy("test", INTERNAL_SALT)));
+            assertEquals(1, AESUtil.getEnvelopeVersion(AESUtil.encryptDeterministic("test", 1)));
+            assertEquals(2, AESUtil.getEnvelopeVersion(AESUtil.encryptDeterministic("test", 2)));
+        }
+    }
+
+    @Nested
+    @DisplayName("Concurrency Tests")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("Concurrent encryption and decryption on pooled crypto instances stay correct")
+        void concurrentRoundTrips() throws Exception {
+            java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(8);
+            try {
+                java.util.List<java.util.concurrent.Future<Boolean>> results = new java.util.ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    final int thread = t;
+                    results.add(executor.submit(() -> {
+                        for (int i = 0; i < 200; i++) {
+                            String original = SAMPLE_CONFIG + thread + "-" + i;
+                            int version = i % 2 + 1;
+                            if (!original.equals(AESUtil.decrypt(AESUtil.encryptDeterministic(original, version)))
+                                    || !original.equals(AESUtil.decryptLegacy(AESUtil.encryptLegacy(original, INTERNAL_SALT), INTERNAL_SALT))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }));
+                }
+                for (java.util.concurrent.Future<Boolean> result : results) {
+                    assertTrue(result.get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        @DisplayName("Repeated deterministic v2 encryption on one thread does not reuse a GCM cipher")
+        void repeatedV2EncryptionOnSameThread() {
+            String first = AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2);
+            assertEquals(first, AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2));
+        }
+    }
+
+    @Nested
+    @DisplayName("Byte-Oriented API Tests")
+    class ByteApiTests {
+
+        @Test
+        @DisplayName("Buffer decryption matches String decryption for every stored format")
+        void decryptToBufferMatchesString() {
+            String[] stored = {
+                    AESUtil.encryptDeterministic(SAMPLE_CONFIG, 1),
+                    AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2),
+                    AESUtil.encryptLegacy(SAMPLE_CONFIG, INTERNAL_SALT)
+            };
+            for (String encrypted : stored) {
+                java.nio.ByteBuffer plain = AESUtil.decryptToBuffer(encrypted);
+                assertEquals(SAMPLE_CONFIG, java.nio.charset.StandardCharsets.UTF_8.decode(plain).toString());
+            }
+        }
+
+        @Test
+        @DisplayName("Envelopes are decrypted in place within the given range")
+        void decryptInPlaceWithinRange() {
+            byte[] envelope = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic(SAMPLE_CONFIG, 1));
+            byte[] data = new byte[envelope.length + 6];
+            System.arraycopy(envelope, 0, data, 3, envelope.length);
+
+            java.nio.ByteBuffer plain = AESUtil.decryptInPlace(data, 3, envelope.length, INTERNAL_SALT);
+
+            assertSame(data, plain.array());
+            assertEquals(3, plain.position());
+            assertEquals(SAMPLE_CONFIG, java.nio.charset.StandardCharsets.UTF_8.decode(plain).toString());
+        }
+
+        @Test
+        @DisplayName("Byte encryption produces the same envelope as String encryption")
+        void byteEncryptionMatchesString() {
+            byte[] plain = SAMPLE_CONFIG.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            for (int version = 1; version <= 2; version++) {
+                byte[] envelope = AESUtil.encryptDeterministic(plain, 0, plain.length, version);
+                assertEquals(AESUtil.encryptDeterministic(SAMPLE_CONFIG, version),
+                        java.util.Base64.getEncoder().encodeToString(envelope));
+            }
+        }
+
+        @Test
+        @DisplayName("Decryption into a caller buffer and a stream")
+        void decryptIntoCallerBufferAndStream() throws Exception {
+            byte[] envelope = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic(SAMPLE_CONFIG, 2));
+            byte[] out = new byte[AESUtil.maxDecryptedLength(envelope.length)];
+
+            int length = AESUtil.decrypt(envelope, 0, envelope.length, INTERNAL_SALT, out, 0);
+            assertEquals(SAMPLE_CONFIG, new String(out, 0, length, java.nio.charset.StandardCharsets.UTF_8));
+
+            java.io.ByteArrayOutputStream stream = new java.io.ByteArrayOutputStream();
+            AESUtil.decrypt(AESUtil.encryptDeterministic(SAMPLE_CONFIG, 1), stream);
+            assertEquals(SAMPLE_CONFIG, stream.toString(java.nio.charset.StandardCharsets.UTF_8));
+        }
+
+        @Test
+        @DisplayName("Binary stored values decrypt and convert like their Base64 form, without being modified")
+        void binaryStoredValues() {
+            for (int version = 1; version <= 2; version++) {
+                String stored = AESUtil.encryptDeterministic(SAMPLE_CONFIG, version);
+                byte[] binary = java.util.Base64.getDecoder().decode(stored);
+                byte[] copy = binary.clone();
+
+                assertEquals(SAMPLE_CONFIG, java.nio.charset.StandardCharsets.UTF_8.decode(AESUtil.decryptToBuffer(binary)).toString());
+                assertEquals(AESUtil.toOpenSslFormat(stored), AESUtil.toOpenSslFormat(binary));
+                assertEquals(version, AESUtil.getEnvelopeVersion(binary));
+                assertArrayEquals(copy, binary);
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Streaming Tests")
+    class StreamingTests {
+
+        @Test
+        @DisplayName("Streaming decryption returns the plaintext for every stored format")
+        void decryptingStreamForEveryFormat() throws Exception {
+            String large = SAMPLE_CONFIG.repeat(500);
+            String[] stored = {
+                    AESUtil.encryptDeterministic(large, 1),
+                    AESUtil.encryptDeterministic(large, 2),
+                    AESUtil.encryptLegacy(large, INTERNAL_SALT),
+                    AESUtil.encryptLegacyWithSalt(large, INTERNAL_SALT, AESUtil.extractSalt(AESUtil.toOpenSslFormat(AESUtil.encryptDeterministic("x", 1))))
+            };
+            for (String encrypted : stored) {
+                try (java.io.InputStream in = AESUtil.decryptingStream(encrypted)) {
+                    assertEquals(large, new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Corrupted ciphertext fails the stream")
+        void decryptingStreamRejectsCorruptedData() {
+            byte[] envelope = java.util.Base64.getDecoder().decode(AESUtil.encryptDeterministic(SAMPLE_CONFIG, 1));
+            envelope[envelope.length - 1] ^= 0x01;
+            String corrupted = java.util.Base64.getEncoder().encodeToString(envelope);
+
+            assertThrows(java.io.IOException.class, () -> {
+                try (java.io.InputStream in = AESUtil.decryptingStream(corrupted)) {
+                    in.readAllBytes();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("Streaming encryption produces the same envelope as String encryption")
+        void streamingEncryptionMatchesString() throws Exception {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            AESUtil.encryptDeterministic(new java.io.ByteArrayInputStream(SAMPLE_CONFIG.getBytes(java.nio.charset.StandardCharsets.UTF_8)), out);
+
+            assertEquals(AESUtil.encryptDeterministic(SAMPLE_CONFIG), out.toString(java.nio.charset.StandardCharsets.US_ASCII));
+        }
+    }
+
     @Nested
     @DisplayName("Decrypting the Provided Example")
     class ProvidedExampleTest {
@@ -0,0 +1,51 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the Bloom filter of configuration ids.
+ */
+class BloomFilterTest {
+
+    @Test
+    @DisplayName("Added ids are always found and absent ids rarely are")
+    void addedIdsAreFound() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("id-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("id-" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain(UUID.randomUUID().toString())) falsePositives++;
+        }
+        assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+    }
+
+    @Test
+    @DisplayName("Ids added concurrently are all found")
+    void concurrentPutsAreKept() throws InterruptedException {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int offset = t * 1000;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) filter.put("id-" + (offset + i));
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) writer.join();
+
+        for (int i = 0; i < 4000; i++) {
+            assertTrue(filter.mightContain("id-" + i));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for splitting items into chunks.
+ */
+class ChunksTest {
+
+    @Test
+    @DisplayName("Items are passed on in full chunks followed by the remainder")
+    void itemsAreChunked() {
+        List<List<Integer>> chunks = new ArrayList<>();
+        Chunks.forEach(List.of(1, 2, 3, 4, 5).iterator(), 2, chunk -> chunks.add(List.copyOf(chunk)));
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), chunks);
+    }
+
+    @Test
+    @DisplayName("Items read before an item that fails to read are passed on before the failure is rethrown")
+    void itemsBeforeAFailureArePassedOn() {
+        List<List<String>> chunks = new ArrayList<>();
+        // Two good lines, then a malformed one, fewer than a chunk's worth
+        Iterator<String> items = new Iterator<>() {
+            private int read;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (read == 2) throw new IllegalStateException("Malformed line");
+                return "item " + read++;
+            }
+        };
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class,
+                () -> Chunks.forEach(items, 500, chunk -> chunks.add(List.copyOf(chunk))));
+        assertEquals("Malformed line", failure.getMessage());
+        assertEquals(List.of(List.of("item 0", "item 1")), chunks);
+    }
+
+    @Test
+    @DisplayName("Nothing is passed on for a failure right after a full chunk")
+    void noEmptyChunkAfterAFailure() {
+        List<List<Integer>> chunks = new ArrayList<>();
+        Iterator<Integer> good = List.of(1, 2).iterator();
+        Iterator<Integer> items = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                if (!good.hasNext()) throw new IllegalStateException("Malformed line");
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                return good.next();
+            }
+        };
+
+        assertThrows(IllegalStateException.class, () -> Chunks.forEach(items, 2, chunk -> chunks.add(List.copyOf(chunk))));
+        assertEquals(List.of(List.of(1, 2)), chunks);
+    }
+}
@@ -0,0 +1,172 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the compression stage applied before encryption.
+ */
+class CompressionTest {
+
+    private static String configuration(int i) {
+        return "\"{\\\"dataSearchConfigurables\\\":\\\"[{\\\\\\\"id\\\\\\\":\\\\\\\"layer-" + i
+                + "\\\\\\\",\\\\\\\"paramValues\\\\\\\":[{\\\\\\\"name\\\\\\\":\\\\\\\"minmagnitude\\\\\\\",\\\\\\\"value\\\\\\\":\\\\\\\"" + i
+                + "\\\\\\\"}],\\\\\\\"style\\\\\\\":{\\\\\\\"id\\\\\\\":\\\\\\\"styler_default_id_1\\\\\\\"}}]\\\"}\"";
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Nested
+    @DisplayName("Compression Round-Trip Tests")
+    class RoundTripTests {
+
+        @Test
+        @DisplayName("Compressed payload decompresses to the original")
+        void roundTrip() {
+            byte[] plain = bytes(configuration(1).repeat(50));
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+
+            assertTrue(compressed.length < plain.length / 10);
+            assertEquals(configuration(1).repeat(50), text(Compression.decompress(compressed, 0, compressed.length)));
+        }
+
+        @Test
+        @DisplayName("Streaming decompression matches buffered decompression")
+        void streamingRoundTrip() throws Exception {
+            Compression.activate(Compression.train(List.of(bytes(configuration(1)), bytes(configuration(2))), 1024));
+            byte[] plain = bytes(configuration(3));
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+
+            try (InputStream in = Compression.inflatingStream(new ByteArrayInputStream(compressed))) {
+                assertEquals(configuration(3), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        @Test
+        @DisplayName("Payload longer than its declared length is rejected")
+        void lengthMismatchRejected() {
+            byte[] plain = bytes("some configuration");
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+            compressed[3]--;
+
+            assertThrows(IllegalArgumentException.class, () -> Compression.decompress(compressed, 0, compressed.length));
+        }
+
+        @Test
+        @DisplayName("Streaming decompression stops at the declared length")
+        void streamingLengthMismatchRejected() throws Exception {
+            byte[] plain = new byte[1 << 20];
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+            ByteBuffer.wrap(compressed).putInt(1024);
+
+            try (InputStream in = Compression.inflatingStream(new ByteArrayInputStream(compressed))) {
+                assertThrows(ZipException.class, () -> in.readAllBytes());
+            }
+        }
+
+        @Test
+        @DisplayName("Streaming decompression rejects payloads shorter than declared")
+        void streamingTruncationRejected() throws Exception {
+            byte[] plain = bytes("some configuration");
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+            compressed[3]++;
+
+            try (InputStream in = Compression.inflatingStream(new ByteArrayInputStream(compressed))) {
+                assertThrows(ZipException.class, () -> in.readAllBytes());
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Dictionary Tests")
+    class DictionaryTests {
+
+        @Test
+        @DisplayName("Trained dictionary holds shared fragments and shrinks small payloads")
+        void trainedDictionaryHelps() {
+            List<byte[]> samples = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                samples.add(bytes(configuration(i)));
+            }
+            byte[] dictionary = Compression.train(samples, 2048);
+            assertTrue(new String(dictionary, StandardCharsets.ISO_8859_1).contains("dataSearchConfigurables"));
+
+            byte[] plain = bytes(configuration(99));
+            Compression.activate(new byte[0]);
+            int withoutDictionary = Compression.compress(plain, 0, plain.length).length;
+            long id = Compression.activate(dictionary);
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+
+            assertEquals(Long.valueOf(id), Compression.getActiveDictionaryId());
+            assertTrue(compressed.length < withoutDictionary);
+            assertEquals(configuration(99), text(Compression.decompress(compressed, 0, compressed.length)));
+        }
+
+        @Test
+        @DisplayName("Payload written with an unknown dictionary cannot be read")
+        void unknownDictionaryRejected() {
+            byte[] dictionary = bytes("\"unique-dictionary-" + System.nanoTime() + "\"");
+            Compression.activate(dictionary);
+            byte[] plain = bytes("unique-dictionary");
+            byte[] compressed = Compression.compress(plain, 0, plain.length);
+            // Flip a bit of the dictionary id in the zlib header
+            compressed[7] ^= 0x01;
+
+            assertThrows(RuntimeException.class, () -> Compression.decompress(compressed, 0, compressed.length));
+        }
+    }
+
+    @Nested
+    @DisplayName("Compressed Envelope Tests")
+    class EnvelopeTests {
+
+        @Test
+        @DisplayName("Compressed envelopes decrypt through every read path")
+        void compressedEnvelopeRoundTrip() throws Exception {
+            String plainText = configuration(7).repeat(20);
+            byte[] plain = bytes(plainText);
+            for (int version = 1; version <= 2; version++) {
+                byte[] envelope = AESUtil.encryptDeterministic(plain, 0, plain.length, version, true);
+                String stored = Base64.getEncoder().encodeToString(envelope);
+
+                assertTrue(AESUtil.isCompressed(envelope));
+                assertTrue(AESUtil.isCompressed(stored));
+                assertTrue(envelope.length < plain.length);
+                assertEquals(plainText, AESUtil.decrypt(stored));
+                assertEquals(plainText, text(AESUtil.decryptToBuffer(envelope)));
+                assertEquals(plainText, AESUtil.decryptLegacy(AESUtil.toOpenSslFormat(envelope), AESUtil.getInternalSalt()));
+                try (InputStream in = AESUtil.decryptingStream(envelope)) {
+                    assertEquals(plainText, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Compressed and uncompressed envelopes of the same plaintext use different v2 nonces")
+        void compressedV2UsesOwnNonce() {
+            byte[] plain = bytes(configuration(8));
+            byte[] compressed = AESUtil.encryptDeterministic(plain, 0, plain.length, 2, true);
+            byte[] uncompressed = AESUtil.encryptDeterministic(plain, 0, plain.length, 2, false);
+
+            assertFalse(java.util.Arrays.equals(compressed, 8, 20, uncompressed, 8, 20));
+        }
+    }
+}
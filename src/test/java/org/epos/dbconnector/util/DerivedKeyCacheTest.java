@@ -0,0 +1,93 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the derived key cache used by AESUtil.
+ */
+class DerivedKeyCacheTest {
+
+    private static final byte[] SALT = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    @Test
+    @DisplayName("Second lookup for the same inputs is served from the cache")
+    void repeatedLookupIsHit() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(4);
+        AtomicInteger derivations = new AtomicInteger();
+
+        byte[][] first = cache.get(DerivedKeyCache.Kdf.EVP, "pass", SALT, () -> {
+            derivations.incrementAndGet();
+            return new byte[][]{ new byte[32], new byte[16] };
+        });
+        byte[][] second = cache.get(DerivedKeyCache.Kdf.EVP, "pass", SALT.clone(), () -> {
+            derivations.incrementAndGet();
+            return new byte[][]{ new byte[32], new byte[16] };
+        });
+
+        assertSame(first, second);
+        assertEquals(1, derivations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("KDF, passphrase and salt all take part in the cache key")
+    void differentInputsAreDistinctEntries() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8);
+        DerivedKeyCache.Derivation derivation = () -> new byte[][]{ new byte[32], new byte[16] };
+
+        cache.get(DerivedKeyCache.Kdf.EVP, "pass", SALT, derivation);
+        cache.get(DerivedKeyCache.Kdf.PBKDF2, "pass", SALT, derivation);
+        cache.get(DerivedKeyCache.Kdf.EVP, "other", SALT, derivation);
+        cache.get(DerivedKeyCache.Kdf.EVP, "pass", new byte[8], derivation);
+
+        assertEquals(4, cache.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Cache never grows beyond its configured size")
+    void cacheIsBounded() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(2);
+        DerivedKeyCache.Derivation derivation = () -> new byte[][]{ new byte[32], new byte[16] };
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(DerivedKeyCache.Kdf.EVP, "pass" + i, SALT, derivation);
+        }
+
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("Repeated AESUtil decryption of stored rows hits the cache")
+    void aesUtilUsesCache() {
+        String encrypted = AESUtil.encryptDeterministic("cached configuration");
+        AESUtil.decrypt(encrypted);
+        long hitsBefore = AESUtil.getDerivedKeyCache().getHits();
+
+        assertEquals("cached configuration", AESUtil.decrypt(encrypted));
+        assertTrue(AESUtil.getDerivedKeyCache().getHits() > hitsBefore);
+    }
+
+    @Test
+    @DisplayName("Values encrypted with a random salt are not cached")
+    void randomSaltsAreNotCached() {
+        DerivedKeyCache cache = AESUtil.getDerivedKeyCache();
+        AESUtil.decrypt(AESUtil.encryptDeterministic("warm up"));
+        long missesBefore = cache.getMisses();
+        int sizeBefore = cache.size();
+
+        for (int i = 0; i < 3; i++) {
+            String encrypted = AESUtil.encrypt("configuration " + i);
+            assertEquals("configuration " + i, AESUtil.decrypt(encrypted));
+        }
+        assertEquals(sizeBefore, cache.size());
+        assertEquals(missesBefore, cache.getMisses());
+    }
+}
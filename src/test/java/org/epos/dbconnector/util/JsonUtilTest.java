@@ -64,6 +64,29 @@ class JsonUtilTest {
             assertEquals("", JsonUtil.normalize(""));
         }
 
+        @Test
+        @DisplayName("Normalize UTF-8 bytes matches normalizing the String")
+        void normalizeBytesMatchesString() {
+            String quoted = "\"{\\\"key\\\":\\\"[1,2]\\\"}\"";
+            for (String input : new String[] { SAMPLE_ESCAPED_JSON, quoted, "not json" }) {
+                byte[] bytes = ("xx" + input).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                assertEquals(JsonUtil.normalize(input), JsonUtil.normalize(bytes, 2, bytes.length - 2));
+            }
+        }
+
+        @Test
+        @DisplayName("Streaming normalization matches normalizing the String")
+        void normalizeStreamMatchesString() throws Exception {
+            String quoted = JsonUtil.denormalize(JsonUtil.normalize(SAMPLE_ESCAPED_JSON), true);
+            // Control characters are written as unicode escapes, which the streaming reader resolves
+            String unicode = JsonUtil.denormalize("{\"name\":\"caf\u00e9 \\\\ \\t \\u0001\",\"n\":1.5,\"list\":[1,2]}", true);
+            for (String input : new String[] { SAMPLE_ESCAPED_JSON, quoted, unicode }) {
+                java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+                JsonUtil.normalize(new java.io.ByteArrayInputStream(input.getBytes(java.nio.charset.StandardCharsets.UTF_8)), out);
+                assertEquals(JsonUtil.normalize(input), out.toString(java.nio.charset.StandardCharsets.UTF_8));
+            }
+        }
+
         @Test
         @DisplayName("Normalize already normalized JSON")
         void normalizeAlreadyNormalizedJson() {
@@ -0,0 +1,54 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the cache of ids known not to exist.
+ */
+class NegativeCacheTest {
+
+    @Test
+    @DisplayName("Missing ids are remembered until they expire or are invalidated")
+    void idsExpireAndAreInvalidated() throws InterruptedException {
+        NegativeCache cache = new NegativeCache(100, 50);
+        cache.add("a", cache.stamp());
+        cache.add("b", cache.stamp());
+        assertTrue(cache.contains("a"));
+
+        cache.invalidate("a");
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+
+        Thread.sleep(80);
+        assertFalse(cache.contains("b"));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("An id is not added if an invalidation happened after the stamp was taken")
+    void invalidationAfterStampWins() {
+        NegativeCache cache = new NegativeCache(100, 60_000);
+        long stamp = cache.stamp();
+        cache.invalidate("a");
+        cache.add("a", stamp);
+        assertFalse(cache.contains("a"));
+    }
+
+    @Test
+    @DisplayName("A full cache drops its oldest ids first")
+    void fullCacheDropsOldest() {
+        NegativeCache cache = new NegativeCache(2, 60_000);
+        cache.add("a", cache.stamp());
+        cache.add("b", cache.stamp());
+        cache.add("a", cache.stamp());
+        cache.add("c", cache.stamp());
+
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.size() <= 2);
+    }
+}
@@ -0,0 +1,64 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the cache of normalized configurations keyed by ciphertext digest.
+ */
+class PlaintextCacheTest {
+
+    @Test
+    @DisplayName("Same ciphertext is served from the cache, in either stored form")
+    void repeatedLookupIsHit() {
+        PlaintextCache cache = new PlaintextCache(1 << 20, 0);
+        AtomicInteger loads = new AtomicInteger();
+        byte[] stored = AESUtil.encryptDeterministicBinary("{\"a\":1}");
+        String storedText = AESUtil.encryptDeterministic("{\"a\":1}");
+
+        assertEquals("x", cache.get(stored, () -> { loads.incrementAndGet(); return "x"; }));
+        assertEquals("x", cache.get(stored.clone(), () -> { loads.incrementAndGet(); return "y"; }));
+        assertEquals("x", cache.get(storedText, () -> { loads.incrementAndGet(); return "x"; }));
+        assertEquals("x", cache.get(storedText, () -> { loads.incrementAndGet(); return "y"; }));
+
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Heap tier is bounded by size, evicting least recently used entries")
+    void heapTierIsBoundedBySize() {
+        PlaintextCache cache = new PlaintextCache(3000, 0);
+        String value = "v".repeat(500);
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(new byte[] { (byte) i }, () -> value);
+            assertTrue(cache.getHeapBytes() <= 3000);
+        }
+        assertEquals(2, cache.size());
+
+        // Oversized values are returned but not cached
+        assertEquals(4000, cache.get(new byte[] { 42 }, () -> "v".repeat(4000)).length());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("Entries evicted from the heap move off-heap and back on their next hit")
+    void offHeapTierKeepsEvictedEntries() {
+        PlaintextCache cache = new PlaintextCache(1700, 1 << 20);
+        byte[] first = { 1 };
+
+        cache.get(first, () -> "first é".repeat(100));
+        cache.get(new byte[] { 2 }, () -> "second".repeat(100));
+        assertTrue(cache.getOffHeapBytes() > 0);
+
+        assertEquals("first é".repeat(100), cache.get(first, () -> { throw new AssertionError("Entry should be cached"); }));
+        assertEquals(1, cache.getOffHeapHits());
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,65 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for routing reads that could miss a recent write to the primary.
+ */
+class ReadYourWritesTest {
+
+    private static final long WINDOW = 5000;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final ReadYourWrites writes = new ReadYourWrites(WINDOW, clock::get);
+
+    @Test
+    @DisplayName("Without writes, reads go to the replicas")
+    void noWrites() {
+        assertFalse(writes.mustReadPrimary("a"));
+        assertFalse(writes.mustReadPrimary(null));
+    }
+
+    @Test
+    @DisplayName("Only reads of a written id go to the primary, until the window passed")
+    void writtenIdReadsPrimary() {
+        writes.recordWrite("a");
+        advance(WINDOW - 1);
+        assertTrue(writes.mustReadPrimary("a"));
+        assertFalse(writes.mustReadPrimary("b"));
+
+        advance(1);
+        assertFalse(writes.mustReadPrimary("a"));
+    }
+
+    @Test
+    @DisplayName("Listings go to the primary after a write of any id, until the window passed")
+    void listingsReadPrimaryAfterAnyWrite() {
+        writes.recordWrite("a");
+        assertTrue(writes.mustReadPrimary(null));
+
+        advance(WINDOW);
+        assertFalse(writes.mustReadPrimary(null));
+    }
+
+    @Test
+    @DisplayName("After a write of any number of ids, every read goes to the primary until the window passed")
+    void writeOfAllReadsPrimary() {
+        writes.recordWrite(null);
+        assertTrue(writes.mustReadPrimary("a"));
+        assertTrue(writes.mustReadPrimary(null));
+
+        advance(WINDOW);
+        assertFalse(writes.mustReadPrimary("a"));
+        assertFalse(writes.mustReadPrimary(null));
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,99 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for collapsing concurrent loads of the same key.
+ */
+class SingleFlightTest {
+
+    @Test
+    @DisplayName("Concurrent calls for one key share a single load")
+    void concurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> flights.run("id", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "value";
+                })));
+            }
+            while (flights.getCollapsed() < 7) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, flights.getLoads());
+        assertEquals(0, flights.getInFlight());
+        assertEquals("again", flights.run("id", () -> "again"));
+    }
+
+    @Test
+    @DisplayName("A call with a newer stamp does not join a load started with an older one")
+    void newerStampRunsOwnLoad() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> stale = executor.submit(() -> flights.run("id", 1, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "before write";
+            }));
+            started.await();
+
+            assertEquals("after write", flights.run("id", 2, () -> "after write"));
+            assertEquals(0, flights.getCollapsed());
+            release.countDown();
+            assertEquals("before write", stale.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2, flights.getLoads());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    @DisplayName("A failed load rethrows its exception and is not kept")
+    void failedLoadIsRethrown() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        IllegalStateException failure = new IllegalStateException("down");
+
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> flights.run("id", () -> { throw failure; })));
+        assertEquals("value", flights.run("id", () -> "value"));
+        assertNull(flights.run("missing", () -> null));
+    }
+}
@@ -0,0 +1,68 @@
+package org.epos.dbconnector.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the weight-bounded cache with frequency-based admission.
+ */
+class TinyLfuCacheTest {
+
+    @Test
+    @DisplayName("Repeated lookups are hits and the total weight stays within the bound")
+    void lookupsAreBoundedByWeight() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(10_000, (k, v) -> v.length());
+
+        assertEquals("0", cache.get(0, String::valueOf));
+        assertEquals("0", cache.get(0, k -> { throw new AssertionError("Entry should be cached"); }));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i, k -> "v".repeat(100));
+            assertTrue(cache.getWeight() <= 10_000);
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertNull(cache.get(-1, k -> null));
+        assertEquals(cache.size() * 100L, cache.getWeight());
+    }
+
+    @Test
+    @DisplayName("Frequently read entries survive scans of one-off lookups larger than the cache")
+    void frequentEntriesSurviveScans() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100_000, (k, v) -> v.length());
+        for (int round = 0; round < 5; round++) {
+            for (int hot = 0; hot < 20; hot++) {
+                cache.get(hot, k -> "h".repeat(1000));
+            }
+        }
+
+        // An LRU cache of 100 entries would lose every hot entry to each scan of 200
+        for (int scan = 0; scan < 10; scan++) {
+            for (int cold = 0; cold < 200; cold++) {
+                cache.get(1000 + scan * 200 + cold, k -> "c".repeat(1000));
+            }
+            long misses = cache.getMisses();
+            for (int hot = 0; hot < 20; hot++) {
+                cache.get(hot, k -> "h".repeat(1000));
+            }
+            assertEquals(misses, cache.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("A value loaded while an entry is invalidated is returned but not cached")
+    void invalidationDuringLoadIsNotCached() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(10_000, (k, v) -> v.length());
+
+        assertEquals("stale", cache.get("a", k -> { cache.invalidate("a"); return "stale"; }));
+        assertEquals("fresh", cache.get("a", k -> "fresh"));
+        assertEquals("fresh", cache.get("a", k -> "other"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+}